@@ -3,7 +3,16 @@ package com.amdocs.sanity;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/*
+ * Copies the failed responses (*~FAILED.txt) under the responses directory to the same place under the destination,
+ * in parallel, or hard links them when asked. The files are found by a walk or taken from a list.
+ */
 final class CopyFailedResponses {
 
     private static final String FAILED_SUFFIX = "~FAILED.txt";
@@ -11,29 +20,97 @@ final class CopyFailedResponses {
     private CopyFailedResponses() {
     }
 
-    static void copy(Path sourceDir, Path destinationDir) throws IOException {
+    static void copy(Path sourceDir, Path destinationDir, boolean link) throws IOException {
         if (!Files.isDirectory(sourceDir)) {
             throw new IllegalArgumentException("Source path is not a directory: " + sourceDir);
         }
 
+        List<Path> failedFiles = new ArrayList<>();
         Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
 
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 
                 if (file.getFileName().toString().endsWith(FAILED_SUFFIX)) {
-                    Path relativePath = sourceDir.relativize(file);
-                    Path targetFile = destinationDir.resolve(relativePath);
-
-                    Files.createDirectories(targetFile.getParent());
-
-                    Files.copy(
-                            file,
-                            targetFile,
-                            StandardCopyOption.REPLACE_EXISTING);
+                    failedFiles.add(file);
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
+        copyAll(sourceDir, failedFiles, destinationDir, link);
+    }
+
+    /** Copies the given failed responses, which must lie under {@code sourceDir}, without walking it. */
+    static void copy(Path sourceDir, List<Path> failedFiles, Path destinationDir, boolean link) throws IOException {
+        if (!Files.isDirectory(sourceDir)) {
+            throw new IllegalArgumentException("Source path is not a directory: " + sourceDir);
+        }
+
+        Path base = sourceDir.toAbsolutePath().normalize();
+        List<Path> files = new ArrayList<>();
+        for (Path file : failedFiles) {
+            Path absolute = file.toAbsolutePath().normalize();
+            if (!absolute.startsWith(base)) {
+                throw new IllegalArgumentException("Failed response is not under " + sourceDir + ": " + file);
+            }
+            files.add(absolute);
+        }
+        copyAll(base, files, destinationDir, link);
+    }
+
+    private static void copyAll(Path sourceDir, List<Path> files, Path destinationDir, boolean link)
+            throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(files.size(), Tasks.IO_THREADS));
+        try {
+            List<Future<Void>> copies = new ArrayList<>();
+            for (Path file : files) {
+                Path targetFile = destinationDir.resolve(sourceDir.relativize(file));
+                copies.add(executor.submit(() -> {
+                    copyFile(file, targetFile, link);
+                    return null;
+                }));
+            }
+
+            IOException failure = null;
+            for (int i = 0; i < copies.size(); i++) {
+                try {
+                    Tasks.await(copies.get(i), "copying " + files.get(i));
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void copyFile(Path file, Path targetFile, boolean link) throws IOException {
+        Files.createDirectories(targetFile.getParent());
+
+        if (link) {
+            try {
+                Files.deleteIfExists(targetFile);
+                Files.createLink(targetFile, file);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // No hard links here (other file system, no support, not permitted): copy instead
+            }
+        }
+
+        Files.copy(
+                file,
+                targetFile,
+                StandardCopyOption.REPLACE_EXISTING);
     }
 }
@@ -0,0 +1,110 @@
+package com.amdocs.sanity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** RFC 4180 fields, shared by the CSV files the runner writes. */
+final class Csv {
+
+    private Csv() {
+    }
+
+    /** Writes {@code value} as one field, quoted only when it holds a comma, a quote or a line break. */
+    static void writeField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                writer.write(value, from, i + 1 - from);
+                writer.write('"');
+                from = i + 1;
+            }
+        }
+        writer.write(value, from, value.length() - from);
+        writer.write('"');
+    }
+
+    /** Reads every record of a UTF-8 file, header included, each as its list of fields. */
+    static List<List<String>> read(Path file) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (RecordReader reader = new RecordReader(file)) {
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /** Reads the records of a UTF-8 file one at a time, header included. */
+    static final class RecordReader implements Closeable {
+
+        private final Reader in;
+        private int next;
+
+        RecordReader(Path file) throws IOException {
+            in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            next = in.read();
+        }
+
+        /** The fields of the next record, null at the end of the file. */
+        List<String> next() throws IOException {
+            if (next < 0) {
+                return null;
+            }
+            List<String> record = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (next >= 0) {
+                char c = (char) next;
+                next = in.read();
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (next == '"') {
+                        field.append('"');
+                        next = in.read();
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n') {
+                    if (c == '\r' && next == '\n') {
+                        next = in.read();
+                    }
+                    break;
+                } else {
+                    field.append(c);
+                }
+            }
+            record.add(field.toString());
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams the rows of every flow to one RFC 4180 CSV file (UTF-8, CRLF line ends). Rows an earlier run wrote for other
+ * flows or the other project are kept, ahead of the new ones.
+ */
+final class CsvExceptionSink implements ExceptionSink {
+
+    private static final String HEADER = "S.No.,Exception,DMP,ENV,Tester,Flow,Project,Occurrences\r\n";
+
+    private final Path file;
+    private final BufferedWriter writer;
+    private final String project;
+    private final String dmp;
+    private final String env;
+    private final String tester;
+    private final Set<String> flows = new HashSet<>();
+
+    CsvExceptionSink(Path file, int project, String dmp, String env, String tester) throws IOException {
+        this.file = file;
+        this.project = ExceptionExtractor.projectName(project);
+        this.dmp = dmp;
+        this.env = env;
+        this.tester = tester;
+        writer = Files.newBufferedWriter(SinkFiles.rows(file), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) throws IOException {
+        flows.add(flow.label());
+        for (int i = 0; i < rows.exceptions.size(); i++) {
+            writer.write(Integer.toString(i + 1));
+            writer.write(',');
+            writeField(rows.exceptions.get(i).trim());
+            writer.write(',');
+            writeField(dmp);
+            writer.write(',');
+            writeField(env);
+            writer.write(',');
+            writeField(tester);
+            writer.write(',');
+            writer.write(flow.label());
+            writer.write(',');
+            writer.write(project);
+            writer.write(',');
+            writer.write(Integer.toString(rows.occurrences == null ? 1 : rows.occurrences[i]));
+            writer.write("\r\n");
+        }
+    }
+
+    private void writeField(String value) throws IOException {
+        Csv.writeField(writer, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        SinkFiles.replace(file, HEADER, this::keepOtherFlows);
+    }
+
+    // Copies the rows of the existing file that this run does not write again
+    private void keepOtherFlows(Writer out) throws IOException {
+        try (Csv.RecordReader reader = new Csv.RecordReader(file)) {
+            if (reader.next() == null) {
+                return;
+            }
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                if (record.size() < 7 || record.get(6).equals(project) && flows.contains(record.get(5))) {
+                    continue;
+                }
+                for (int i = 0; i < record.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    Csv.writeField(out, record.get(i));
+                }
+                out.write("\r\n");
+            }
+        }
+    }
+}
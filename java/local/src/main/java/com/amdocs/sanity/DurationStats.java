@@ -0,0 +1,129 @@
+package com.amdocs.sanity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Test case durations of a report, taken in one pass: percentiles per suite and overall, and the slowest test cases.
+ * Memory does not grow with the number of test cases. Durations are counted in millisecond histograms whose buckets
+ * are exact up to 127 ms and then split each doubling in 64; a percentile is the middle of its bucket, so it is off
+ * by at most 1/128 of its value.
+ * The slowest test cases are kept in a min-heap of SLOWEST entries.
+ */
+final class DurationStats {
+
+    static final int SLOWEST = 10;
+
+    /** Buckets per doubling of the duration; the first 2 * SUB_BUCKETS milliseconds have one bucket each. */
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+
+    static final class Histogram {
+        private long[] counts = new long[2 * SUB_BUCKETS];
+        private long count;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        void add(long millis) {
+            int index = index(millis);
+            if (index >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + SUB_BUCKETS));
+            }
+            counts[index]++;
+            count++;
+            min = Math.min(min, millis);
+            max = Math.max(max, millis);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /** The nearest-rank {@code percent} percentile in milliseconds, 0 when empty. */
+        long percentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    int shift = shift(i);
+                    long low = (long) (i - (shift << SUB_BITS)) << shift;
+                    long middle = low + (1L << shift) / 2;
+                    return Math.max(min, Math.min(max, middle));
+                }
+            }
+            return max;
+        }
+
+        private static int index(long millis) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(millis) - SUB_BITS);
+            return (shift << SUB_BITS) + (int) (millis >>> shift);
+        }
+
+        private static int shift(int index) {
+            return index < 2 * SUB_BUCKETS ? 0 : (index >> SUB_BITS) - 1;
+        }
+    }
+
+    static final class Slow {
+        final String suite;
+        final String testCase;
+        final double time;
+        /** Order in which it was added, to keep ties in report order. */
+        private final long order;
+
+        private Slow(String suite, String testCase, double time, long order) {
+            this.suite = suite;
+            this.testCase = testCase;
+            this.time = time;
+            this.order = order;
+        }
+    }
+
+    /** Slowest at the head: shortest first, then the later added of the same duration. */
+    private static final Comparator<Slow> FASTEST_FIRST = Comparator.<Slow>comparingDouble(slow -> slow.time)
+            .thenComparing(Comparator.<Slow>comparingLong(slow -> slow.order).reversed());
+
+    final Histogram overall = new Histogram();
+    /** In the order the suites came in; suites of the same name are counted together. */
+    final Map<String, Histogram> suites = new LinkedHashMap<>();
+    private final PriorityQueue<Slow> slowest = new PriorityQueue<>(SLOWEST + 1, FASTEST_FIRST);
+    private long added;
+
+    /** Adds a test case; one whose time is not a finite number is left out. */
+    void add(String suite, String testCase, double time) {
+        if (Double.isNaN(time) || Double.isInfinite(time)) {
+            return;
+        }
+        long millis = Math.max(0, Math.round(time * 1000));
+        overall.add(millis);
+        suites.computeIfAbsent(suite, name -> new Histogram()).add(millis);
+
+        Slow slow = new Slow(suite, testCase, time, added++);
+        if (slowest.size() < SLOWEST) {
+            slowest.add(slow);
+        } else if (time > slowest.peek().time) {
+            slowest.poll();
+            slowest.add(slow);
+        }
+    }
+
+    /** The slowest test cases, slowest first. */
+    List<Slow> slowest() {
+        List<Slow> list = new ArrayList<>(slowest);
+        list.sort(FASTEST_FIRST.reversed());
+        return list;
+    }
+}
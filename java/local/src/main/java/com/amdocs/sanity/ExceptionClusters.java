@@ -0,0 +1,95 @@
+package com.amdocs.sanity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups exceptions by signature: the text with every token holding a digit replaced by '#' and whitespace collapsed.
+ * Past {@link #MAX_CLUSTERS} signatures, new ones are counted in a single overflow cluster.
+ */
+final class ExceptionClusters {
+
+    static final int MAX_CLUSTERS = 1000;
+
+    private static final class Cluster {
+        final String sample;
+        int count;
+
+        Cluster(String sample) {
+            this.sample = sample;
+        }
+    }
+
+    private final Map<String, Cluster> bySignature = new HashMap<>();
+    private final List<Cluster> clusters = new ArrayList<>();
+    private Cluster overflow;
+
+    void add(String exception) {
+        String signature = signature(exception);
+        Cluster cluster = bySignature.get(signature);
+        if (cluster == null) {
+            if (clusters.size() < MAX_CLUSTERS) {
+                cluster = new Cluster(exception);
+                bySignature.put(signature, cluster);
+                clusters.add(cluster);
+            } else {
+                if (overflow == null) {
+                    overflow = new Cluster("Other exceptions (more than " + MAX_CLUSTERS
+                            + " distinct signatures), e.g.:\n" + exception);
+                }
+                cluster = overflow;
+            }
+        }
+        cluster.count++;
+    }
+
+    /** One row per cluster, most frequent first (first seen first on ties), the overflow cluster last. */
+    ExceptionExtractor.SheetRows rows() {
+        List<Cluster> sorted = new ArrayList<>(clusters);
+        sorted.sort((a, b) -> Integer.compare(b.count, a.count));
+        if (overflow != null) {
+            sorted.add(overflow);
+        }
+
+        List<String> samples = new ArrayList<>(sorted.size());
+        int[] counts = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            samples.add(sorted.get(i).sample);
+            counts[i] = sorted.get(i).count;
+        }
+        return new ExceptionExtractor.SheetRows(samples, counts);
+    }
+
+    static String signature(String exception) {
+        int length = exception.length();
+        StringBuilder signature = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = exception.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                boolean hasDigit = false;
+                while (i < length && (Character.isLetterOrDigit(c = exception.charAt(i)) || c == '_')) {
+                    hasDigit |= Character.isDigit(c);
+                    i++;
+                }
+                if (hasDigit) {
+                    signature.append('#');
+                } else {
+                    signature.append(exception, start, i);
+                }
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(exception.charAt(i))) {
+                    i++;
+                }
+                signature.append(' ');
+            } else {
+                signature.append(c);
+                i++;
+            }
+        }
+        return signature.toString();
+    }
+}
@@ -0,0 +1,317 @@
+package com.amdocs.sanity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Pulls the exception blocks out of the flow logs and hands them to an ExceptionSink; nothing here needs POI
+final class ExceptionExtractor {
+
+    private ExceptionExtractor() {
+    }
+
+    /** Exceptions of one flow, with how often each occurred when they are clusters (null otherwise). */
+    static final class SheetRows {
+        final List<String> exceptions;
+        final int[] occurrences;
+        /** S.No. of the first row when the rows are appended to the flow's existing sheet, 0 when they replace it. */
+        final int appendFrom;
+
+        SheetRows(List<String> exceptions, int[] occurrences) {
+            this(exceptions, occurrences, 0);
+        }
+
+        SheetRows(List<String> exceptions, int[] occurrences, int appendFrom) {
+            this.exceptions = exceptions;
+            this.occurrences = occurrences;
+            this.appendFrom = appendFrom;
+        }
+    }
+
+    /*
+     * Reads the log of each flow and writes its rows to the sink, in flow order. With an incremental state, each log is
+     * only read from where the previous run stopped.
+     */
+    static void extract(List<Path> logFiles, List<String> flows, boolean parallel, boolean cluster,
+            IncrementalState incremental, ExceptionSink sink) throws IOException {
+
+        List<Flow> parsedFlows = new ArrayList<>();
+        List<IncrementalState.Sheet> sheets = new ArrayList<>();
+        for (String flow : flows) {
+            Flow f = flowOf(flow);
+            if (incremental != null && parsedFlows.contains(f)) {
+                throw new IllegalArgumentException("Flow given twice: " + flow);
+            }
+            parsedFlows.add(f);
+            sheets.add(incremental == null ? null : incremental.sheet(f));
+        }
+
+        if (!parallel) {
+            for (int i = 0; i < logFiles.size(); i++) {
+                sink.write(parsedFlows.get(i), readRows(logFiles.get(i), cluster, sheets.get(i)));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Tasks.cpuThreads(logFiles.size()));
+        try {
+            List<Future<SheetRows>> results = new ArrayList<>();
+            for (int i = 0; i < logFiles.size(); i++) {
+                Path logFile = logFiles.get(i);
+                IncrementalState.Sheet sheet = sheets.get(i);
+                results.add(executor.submit(() -> readRows(logFile, cluster, sheet)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                sink.write(parsedFlows.get(i), Tasks.await(results.get(i), "reading " + logFiles.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static Flow flowOf(String flow) {
+        try {
+            return Flow.valueOf(flow.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid flow: " + flow, e);
+        }
+    }
+
+    static String projectName(int project) {
+        return project == 1 ? "OE" : "CO";
+    }
+
+    private static SheetRows readRows(Path logFile, boolean cluster, IncrementalState.Sheet sheet)
+            throws IOException {
+        if (sheet != null) {
+            return readNewRows(logFile, sheet);
+        }
+        try (LogLines lines = new LogLines(logFile, 0)) {
+            if (cluster) {
+                ExceptionClusters clusters = new ExceptionClusters();
+                findErrors(lines, false, clusters::add);
+                return clusters.rows();
+            }
+            List<String> exceptions = new ArrayList<>();
+            findErrors(lines, false, exceptions::add);
+            return new SheetRows(exceptions, null);
+        }
+    }
+
+    /*
+     * Appends every exception past the offset the sheet's log was read to, or rebuilds the sheet if the log is not the
+     * one it was built from.
+     */
+    private static SheetRows readNewRows(Path logFile, IncrementalState.Sheet sheet) throws IOException {
+        boolean append = sheet.continues(logFile);
+        List<String> exceptions = new ArrayList<>();
+
+        long resume;
+        try (LogLines lines = new LogLines(logFile, append ? sheet.offset() : 0)) {
+            resume = findErrors(lines, true, exceptions::add);
+        }
+
+        int appendFrom = append ? sheet.nextSerial() : 0;
+        sheet.update(logFile, append, resume, exceptions.size());
+        return new SheetRows(exceptions, null, appendFrom);
+    }
+
+    /*
+     * Returns the offset the next incremental read starts from. With growing, a block ended by an unterminated last
+     * line is left to that read, as the line may still be written to.
+     */
+    private static long findErrors(LogLines lines, boolean growing, Consumer<String> exceptions)
+            throws IOException {
+        long resume = lines.position();
+        TagBalance blocks = new TagBalance();
+        String line;
+        StringBuilder exception = new StringBuilder();
+        while ((line = lines.readLine()) != null) {
+            // Bounds of line.trim(), taken in place
+            int from = 0;
+            int to = line.length();
+            while (from < to && line.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && line.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            int len = to - from;
+            if (len == 0 && !blocks.inBlock()) {
+                if (lines.terminated()) {
+                    resume = lines.position();
+                }
+                continue;
+            }
+
+            // Check if session-id encountered at EOF
+            if (len >= 13 && len <= 15) {
+                boolean isDigitOnly = true;
+                for (int i = from; i < to; i++) {
+                    if (!Character.isDigit(line.charAt(i))) {
+                        isDigitOnly = false;
+                        break;
+                    }
+                }
+
+                if (!isDigitOnly) {
+                    if (!blocks.inBlock()) {
+                        resume = lines.lineStart();
+                    }
+                    break;
+                }
+            }
+
+            if (blocks.feed(line, 0, line.length(), lines.lineStart(), lines.position())) {
+                if (lines.terminated() || !growing) {
+                    exceptions.accept(exception.toString().trim());
+                }
+                exception.setLength(0);
+                if (lines.terminated()) {
+                    resume = blocks.blockEnd();
+                }
+            } else {
+                exception.append(line);
+            }
+        }
+
+        return resume;
+    }
+
+    // Lines of a log from a byte offset, split and decoded as BufferedReader over a FileReader does
+    private static final class LogLines implements Closeable {
+        private final InputStream in;
+        private final Charset charset = Charset.defaultCharset();
+        private byte[] buf = new byte[32 * 1024];
+        private long bufStart;
+        private int pos;
+        private int limit;
+        private boolean skipLF;
+        private long lineStart;
+        private boolean terminated;
+
+        LogLines(Path file, long offset) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(offset);
+            in = Channels.newInputStream(channel);
+            bufStart = offset;
+        }
+
+        String readLine() throws IOException {
+            if (skipLF) {
+                skipLF = false;
+                if ((pos < limit || fill()) && buf[pos] == '\n') {
+                    pos++;
+                }
+            }
+
+            int start = pos;
+            int i = pos;
+            while (true) {
+                if (i == limit) {
+                    int kept = i - start;
+                    if (!fill(start)) {
+                        if (kept == 0) {
+                            return null;
+                        }
+                        lineStart = bufStart;
+                        terminated = false;
+                        pos = limit;
+                        return new String(buf, 0, kept, charset);
+                    }
+                    start = 0;
+                    i = kept;
+                    continue;
+                }
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    lineStart = bufStart + start;
+                    terminated = true;
+                    pos = i + 1;
+                    skipLF = b == '\r';
+                    return new String(buf, start, i - start, charset);
+                }
+                i++;
+            }
+        }
+
+        /** Offset of the line last read. */
+        long lineStart() {
+            return lineStart;
+        }
+
+        /** Whether the line last read had a terminator, i.e. cannot grow any more. */
+        boolean terminated() {
+            return terminated;
+        }
+
+        /** Offset past the line last read. A '\n' following its '\r' is only skipped by the next read. */
+        long position() {
+            return bufStart + pos;
+        }
+
+        private boolean fill() throws IOException {
+            return fill(pos);
+        }
+
+        /** Moves bytes from {@code keep} on to the front and reads more after them. False at EOF. */
+        private boolean fill(int keep) throws IOException {
+            int kept = limit - keep;
+            if (keep > 0) {
+                System.arraycopy(buf, keep, buf, 0, kept);
+                bufStart += keep;
+            } else if (kept == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            pos = 0;
+            limit = kept;
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n <= 0) {
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static enum Flow {
+        NC("NC"),
+        COS("COS"),
+        CR("CR"),
+        RP("RP"),
+        MT("MT"),
+        BT("BT"),
+        SU("SU");
+
+        private final String label;
+
+        Flow(String label) {
+            this.label = label;
+        }
+
+        String label() {
+            return label;
+        }
+
+        String sheetName(boolean isOE) {
+            return label + (isOE ? " - OE" : " - CO");
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.amdocs.sanity;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Destination of the exceptions extracted from the flow logs of one run; rows are numbered from 1 per flow. */
+interface ExceptionSink extends Closeable {
+
+    /** Writes the rows of one flow. Flows arrive in the order they were given. */
+    void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) throws IOException;
+}
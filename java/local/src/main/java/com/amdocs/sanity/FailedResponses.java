@@ -0,0 +1,137 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * The api_response files of the failed steps of a report, renamed to "&lt;step&gt; ~FAILED.txt" in one parallel batch
+ * once parsing is done. failed-responses.csv lists every file and how its rename went.
+ */
+final class FailedResponses {
+
+    static final String MANIFEST = "failed-responses.csv";
+
+    enum Status {
+        RENAMED,
+        /** Only the target exists, e.g. when the report is generated again. */
+        ALREADY_RENAMED,
+        MISSING,
+        ERROR
+    }
+
+    static final class Entry {
+        final Path source;
+        final Path target;
+        Status status;
+        /** Why the rename failed, when the status is ERROR. */
+        String error;
+
+        Entry(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    private final Map<Path, Entry> entries = new LinkedHashMap<>();
+
+    /** Adds the api_response file of a failed step. A file added again is still renamed once. */
+    void add(String apiResponsesDir, String testSuiteName, String testCaseName, String failedStep) {
+        String step = failedStep.replace("&amp;", "&");
+        Path source = Paths.get(apiResponsesDir, testSuiteName, testCaseName, step + ".txt").toAbsolutePath();
+        entries.computeIfAbsent(source, s -> new Entry(s, s.resolveSibling(step + " ~FAILED.txt")));
+    }
+
+    /** Renames every file, in parallel, and logs the ones that could not be renamed. */
+    void renameAll(Consumer<String> logger) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(entries.size(), Tasks.IO_THREADS));
+        try {
+            List<Future<Status>> renames = new ArrayList<>();
+            for (Entry entry : entries.values()) {
+                renames.add(executor.submit(() -> rename(entry)));
+            }
+            int i = 0;
+            for (Entry entry : entries.values()) {
+                entry.status = Tasks.await(renames.get(i++), "renaming " + entry.source);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int renamed = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.status == Status.RENAMED) {
+                renamed++;
+            } else if (entry.status == Status.MISSING) {
+                logger.accept("API response file not found: " + entry.source);
+            } else if (entry.status == Status.ERROR) {
+                logger.accept("Failed to rename API response file: " + entry.source + " (" + entry.error + ")");
+            }
+        }
+        logger.accept("Renamed " + renamed + " of " + entries.size() + " failed API response file(s)");
+    }
+
+    List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /** Writes the manifest as RFC 4180 CSV (UTF-8, CRLF line ends): Source, Target, Status. */
+    void writeManifest(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Source,Target,Status\r\n");
+            for (Entry entry : entries.values()) {
+                Csv.writeField(writer, entry.source.toString());
+                writer.write(',');
+                Csv.writeField(writer, entry.target.toString());
+                writer.write(',');
+                writer.write(entry.status == null ? "" : entry.status.name());
+                writer.write("\r\n");
+            }
+        }
+    }
+
+    /** The failed response files a manifest lists as in place, renamed by that run or before it. */
+    static List<Path> readManifest(Path manifest) throws IOException {
+        List<List<String>> records = Csv.read(manifest);
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i < records.size(); i++) {
+            List<String> record = records.get(i);
+            if (record.size() < 3) {
+                throw new IOException("Malformed failed responses manifest " + manifest + " at record " + (i + 1));
+            }
+            String status = record.get(2);
+            if (status.equals(Status.RENAMED.name()) || status.equals(Status.ALREADY_RENAMED.name())) {
+                files.add(Paths.get(record.get(1)));
+            }
+        }
+        return files;
+    }
+
+    private static Status rename(Entry entry) {
+        try {
+            Files.move(entry.source, entry.target);
+            return Status.RENAMED;
+        } catch (NoSuchFileException e) {
+            return Files.exists(entry.target) ? Status.ALREADY_RENAMED : Status.MISSING;
+        } catch (IOException | RuntimeException e) {
+            entry.error = e.toString();
+            return Status.ERROR;
+        }
+    }
+}
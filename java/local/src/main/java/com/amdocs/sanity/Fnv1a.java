@@ -0,0 +1,144 @@
+package com.amdocs.sanity;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** 64-bit FNV-1a. State files and the report cache record its values, so it must not change. */
+final class Fnv1a {
+
+    static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fnv1a() {
+    }
+
+    /** {@code hash} continued with one char or byte value. */
+    static long add(long hash, int value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    /** {@code hash} continued with the eight bytes of {@code value}, lowest first. */
+    static long addLong(long hash, long value) {
+        for (int i = 0; i < 64; i += 8) {
+            hash = (hash ^ ((value >>> i) & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+
+    /** {@code hash} continued with bytes [from, to) of {@code bytes}. */
+    static long add(long hash, byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+
+    /** {@code hash} continued with bytes [from, to) of {@code buf}, read with absolute gets. */
+    static long add(long hash, ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (buf.get(i) & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+
+    /** Hash of the content of {@code file}. */
+    static long hash(Path file) throws IOException {
+        long hash = OFFSET_BASIS;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                hash = add(hash, buffer, 0, n);
+            }
+        }
+        return hash;
+    }
+
+    /** Hash of the first {@code length} bytes of {@code file}, 0 if it is shorter. */
+    static long head(Path file, int length) throws IOException {
+        byte[] head = new byte[length];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int read = 0; read < length; ) {
+                int n = in.read(head, read, length - read);
+                if (n < 0) {
+                    return 0;
+                }
+                read += n;
+            }
+        }
+        return add(OFFSET_BASIS, head, 0, length);
+    }
+
+    /** Hashes whatever is read through it; skipped bytes are read too, and mark/reset is not supported. */
+    static final class HashingInputStream extends FilterInputStream {
+
+        private long hash = OFFSET_BASIS;
+
+        HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /** Hash of the bytes read so far. */
+        long hash() {
+            return hash;
+        }
+
+        /** Reads what is left, so that {@link #hash()} is the hash of the whole stream. */
+        long drain() throws IOException {
+            byte[] buffer = new byte[8 * 1024];
+            while (read(buffer, 0, buffer.length) >= 0) {
+            }
+            return hash;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                hash = add(hash, b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                hash = add(hash, b, off, off + n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.amdocs.sanity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flaky tests and duration regressions of the latest run, over the last runs of a RunHistory. Flaky: the status
+ * changed at least twice. Regressed: passed, but took half again and a second more than its median.
+ */
+final class HistoryAnalysis {
+
+    private static final int MIN_CHANGES = 2;
+    private static final int MIN_EARLIER_RUNS = 3;
+    private static final double REGRESSION_FACTOR = 1.5;
+    private static final int REGRESSION_MILLIS = 1000;
+
+    private static final byte ABSENT = 0;
+    private static final byte PASSED = 1;
+    private static final byte FAILED = 2;
+
+    static final class Flaky {
+        final String suite;
+        final String testCase;
+        final int failed;
+        final int runs;
+        final int changes;
+
+        Flaky(String suite, String testCase, int failed, int runs, int changes) {
+            this.suite = suite;
+            this.testCase = testCase;
+            this.failed = failed;
+            this.runs = runs;
+            this.changes = changes;
+        }
+    }
+
+    static final class Regression {
+        final String suite;
+        final String testCase;
+        final int millis;
+        final int medianMillis;
+
+        Regression(String suite, String testCase, int millis, int medianMillis) {
+            this.suite = suite;
+            this.testCase = testCase;
+            this.millis = millis;
+            this.medianMillis = medianMillis;
+        }
+    }
+
+    /** Runs looked at, the latest one included. */
+    final int runs;
+    /** In the order of the latest run. */
+    final List<Flaky> flaky = new ArrayList<>();
+    final List<Regression> regressions = new ArrayList<>();
+
+    private HistoryAnalysis(int runs) {
+        this.runs = runs;
+    }
+
+    /** Analyzes {@code runs}, oldest first and the latest one last, whose names are those of {@code history}. */
+    static HistoryAnalysis analyze(RunHistory history, List<RunHistory.Run> runs) {
+        HistoryAnalysis analysis = new HistoryAnalysis(runs.size());
+        if (runs.isEmpty()) {
+            return analysis;
+        }
+
+        // Test cases of the latest run, numbered in its order
+        RunHistory.Run latest = runs.get(runs.size() - 1);
+        Map<Long, Integer> numbers = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < latest.size(); i++) {
+            long key = key(latest, i);
+            if (!numbers.containsKey(key)) {
+                numbers.put(key, keys.size());
+                keys.add(key);
+            }
+        }
+        int count = keys.size();
+
+        byte[] status = new byte[count];
+        int[] millis = new int[count];
+        byte[] lastStatus = new byte[count];
+        int[] seen = new int[count];
+        int[] failed = new int[count];
+        int[] changes = new int[count];
+        // Durations of the passed runs before the latest one
+        int[][] earlier = new int[count][runs.size() - 1];
+        int[] earlierCount = new int[count];
+
+        for (int r = 0; r < runs.size(); r++) {
+            RunHistory.Run run = runs.get(r);
+            Arrays.fill(status, ABSENT);
+            for (int i = 0; i < run.size(); i++) {
+                Integer number = numbers.get(key(run, i));
+                if (number == null) {
+                    continue;
+                }
+                if (status[number] == ABSENT) {
+                    millis[number] = run.millis[i];
+                }
+                if (run.failed[i]) {
+                    status[number] = FAILED;
+                } else if (status[number] == ABSENT) {
+                    status[number] = PASSED;
+                }
+            }
+
+            boolean last = r == runs.size() - 1;
+            for (int k = 0; k < count; k++) {
+                if (status[k] == ABSENT) {
+                    continue;
+                }
+                seen[k]++;
+                if (status[k] == FAILED) {
+                    failed[k]++;
+                }
+                if (lastStatus[k] != ABSENT && lastStatus[k] != status[k]) {
+                    changes[k]++;
+                }
+                lastStatus[k] = status[k];
+
+                if (!last && status[k] == PASSED) {
+                    earlier[k][earlierCount[k]++] = millis[k];
+                }
+            }
+        }
+
+        // status and millis hold the latest run
+        for (int k = 0; k < count; k++) {
+            long key = keys.get(k);
+            String suite = history.name((int) (key >>> 32));
+            String testCase = history.name((int) key);
+
+            if (changes[k] >= MIN_CHANGES) {
+                analysis.flaky.add(new Flaky(suite, testCase, failed[k], seen[k], changes[k]));
+            }
+
+            if (status[k] == PASSED && earlierCount[k] >= MIN_EARLIER_RUNS) {
+                int median = median(earlier[k], earlierCount[k]);
+                if (millis[k] >= median * REGRESSION_FACTOR && millis[k] - median >= REGRESSION_MILLIS) {
+                    analysis.regressions.add(new Regression(suite, testCase, millis[k], median));
+                }
+            }
+        }
+        return analysis;
+    }
+
+    private static long key(RunHistory.Run run, int i) {
+        return ((long) run.suites[i] << 32) | (run.testCases[i] & 0xffffffffL);
+    }
+
+    private static int median(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (int) (((long) sorted[count / 2 - 1] + sorted[count / 2]) / 2);
+    }
+}
@@ -0,0 +1,149 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exceptions.xlsx.incremental: per flow sheet, the log it was built from, how far that log was read and the next
+ * S.No. The state is dropped once the workbook was saved by anything else.
+ */
+final class IncrementalState {
+
+    private static final int MAGIC = 0x45584349;
+    private static final int VERSION = 2;
+    /** Bytes at the start of a log compared to recognise it. */
+    private static final int HEAD = 4096;
+
+    static final class Sheet {
+        private String log = "";
+        private long offset;
+        private int headLength;
+        private long headHash;
+        private int nextSerial = 1;
+
+        /** Whether {@code logFile} is the log this sheet was built from, grown or not. */
+        boolean continues(Path logFile) throws IOException {
+            if (!log.equals(key(logFile)) || Files.size(logFile) < offset) {
+                return false;
+            }
+            return Fnv1a.head(logFile, headLength) == headHash;
+        }
+
+        long offset() {
+            return offset;
+        }
+
+        int nextSerial() {
+            return nextSerial;
+        }
+
+        /** Records a read of {@code logFile} up to {@code offset} that added {@code rows} rows to the sheet. */
+        void update(Path logFile, boolean appended, long offset, int rows) throws IOException {
+            if (!appended) {
+                nextSerial = 1;
+            }
+            nextSerial += rows;
+            log = key(logFile);
+            this.offset = offset;
+            headLength = (int) Math.min(offset, HEAD);
+            headHash = Fnv1a.head(logFile, headLength);
+        }
+    }
+
+    private final Path file;
+    private final Path workbook;
+    private final boolean isOE;
+    private final Map<String, Sheet> sheets = new LinkedHashMap<>();
+
+    private IncrementalState(Path workbook, boolean isOE) {
+        this.file = sidecar(workbook);
+        this.workbook = workbook;
+        this.isOE = isOE;
+    }
+
+    static IncrementalState load(Path workbook, int project) throws IOException {
+        IncrementalState state = new IncrementalState(workbook, project == 1);
+        state.read();
+        return state;
+    }
+
+    static boolean exists(Path workbook) {
+        return Files.exists(sidecar(workbook));
+    }
+
+    Sheet sheet(ExceptionExtractor.Flow flow) {
+        return sheets.computeIfAbsent(flow.sheetName(isOE), name -> new Sheet());
+    }
+
+    /** Drops what is recorded for sheets rebuilt by a run that is not incremental. */
+    void forget(Collection<String> sheetNames) {
+        sheets.keySet().removeAll(sheetNames);
+    }
+
+    /** Writes the state down against the workbook as it is now on disk. */
+    void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.exists(workbook) ? Files.size(workbook) : -1);
+            out.writeLong(Files.exists(workbook) ? Files.getLastModifiedTime(workbook).toMillis() : -1);
+            out.writeInt(sheets.size());
+            for (Map.Entry<String, Sheet> entry : sheets.entrySet()) {
+                Sheet sheet = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(sheet.log);
+                out.writeLong(sheet.offset);
+                out.writeInt(sheet.headLength);
+                out.writeLong(sheet.headHash);
+                out.writeInt(sheet.nextSerial);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            if (!Files.exists(workbook) || size != Files.size(workbook)
+                    || modified != Files.getLastModifiedTime(workbook).toMillis()) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Sheet sheet = new Sheet();
+                sheet.log = in.readUTF();
+                sheet.offset = in.readLong();
+                sheet.headLength = in.readInt();
+                sheet.headHash = in.readLong();
+                sheet.nextSerial = in.readInt();
+                sheets.put(name, sheet);
+            }
+        } catch (NoSuchFileException e) {
+            // First incremental run
+        }
+    }
+
+    static Path sidecar(Path workbook) {
+        return workbook.resolveSibling(workbook.getFileName() + ".incremental");
+    }
+
+    private static String key(Path logFile) {
+        return logFile.toAbsolutePath().normalize().toString();
+    }
+}
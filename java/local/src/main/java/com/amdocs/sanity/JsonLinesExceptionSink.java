@@ -0,0 +1,126 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streams the rows of every flow to one JSON Lines file (UTF-8), one object per row:
+ * {"sNo":1,"exception":"...","dmp":"...","env":"...","tester":"...","flow":"NC","project":"OE","occurrences":1}
+ * Rows an earlier run wrote for other flows or the other project are kept, ahead of the new ones.
+ */
+final class JsonLinesExceptionSink implements ExceptionSink {
+
+    private final Path file;
+    private final BufferedWriter writer;
+    private final String project;
+    private final String dmp;
+    private final String env;
+    private final String tester;
+    private final Set<String> flows = new HashSet<>();
+
+    JsonLinesExceptionSink(Path file, int project, String dmp, String env, String tester) throws IOException {
+        this.file = file;
+        this.project = ExceptionExtractor.projectName(project);
+        this.dmp = dmp;
+        this.env = env;
+        this.tester = tester;
+        writer = Files.newBufferedWriter(SinkFiles.rows(file), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) throws IOException {
+        flows.add(flow.label());
+        for (int i = 0; i < rows.exceptions.size(); i++) {
+            writer.write("{\"sNo\":");
+            writer.write(Integer.toString(i + 1));
+            writer.write(",\"exception\":");
+            writeString(rows.exceptions.get(i).trim());
+            writer.write(",\"dmp\":");
+            writeString(dmp);
+            writer.write(",\"env\":");
+            writeString(env);
+            writer.write(",\"tester\":");
+            writeString(tester);
+            writer.write(",\"flow\":\"");
+            writer.write(flow.label());
+            writer.write("\",\"project\":\"");
+            writer.write(project);
+            writer.write("\",\"occurrences\":");
+            writer.write(Integer.toString(rows.occurrences == null ? 1 : rows.occurrences[i]));
+            writer.write("}\n");
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            writer.write(value, from, i - from);
+            from = i + 1;
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        writer.write(value, from, value.length() - from);
+        writer.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        SinkFiles.replace(file, "", this::keepOtherFlows);
+    }
+
+    // Copies the rows of the existing file that this run does not write again
+    private void keepOtherFlows(Writer out) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || project.equals(value(line, ",\"project\":\""))
+                        && flows.contains(value(line, ",\"flow\":\""))) {
+                    continue;
+                }
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    // Flow and project come after every string that may hold an escaped quote, so their last occurrence is theirs
+    private static String value(String line, String key) {
+        int from = line.lastIndexOf(key);
+        if (from < 0) {
+            return null;
+        }
+        from += key.length();
+        int to = line.indexOf('"', from);
+        return to < 0 ? null : line.substring(from, to);
+    }
+}
@@ -1,140 +1,114 @@
 package com.amdocs.sanity;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFColor;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 final class LogsToExcel {
 
+    /** Rows kept in memory per sheet while streaming; older ones are already on disk. */
+    private static final int ROW_WINDOW = 100;
+
     private LogsToExcel() {
     }
 
-    static void log(Path logFile, Path excelPath, String flow, int project, String dmp, String env, String tester) throws IOException {
-        List<String> exceptions;
+    /*
+     * (Re)generates the given sheets, keeping the others. They are streamed through SXSSF and spliced into an existing
+     * workbook (see WorkbookSplicer), or the workbook is loaded where that is not safe.
+     */
+    static void writeSheets(Map<String, ExceptionExtractor.SheetRows> sheets, Path excelPath, String dmp,
+            String env, String tester) throws IOException {
 
-        Flow f;
-        try {
-            f = Flow.valueOf(flow.toUpperCase());
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid flow: " + flow, e);
-        }
+        File file = excelPath.toFile();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(logFile.toFile()), 32 * 1024);) {
-            exceptions = findErrors(br);
-            createExcel(exceptions, excelPath, f, project, dmp, env, tester);
+        if (!file.exists()) {
+            SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+            workbook.setCompressTempFiles(true);
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fillSheets(workbook, sheets, dmp, env, tester);
+                workbook.write(fos);
+            } finally {
+                workbook.dispose();
+                workbook.close();
+            }
+            return;
         }
-    }
-
-    private static List<String> findErrors(BufferedReader br) throws IOException {
-        List<String> exceptions = new ArrayList<>();
 
-        int openTags = 0;
-        String line;
-        StringBuilder exception = new StringBuilder();
-        while ((line = br.readLine()) != null) {
-            int len = line.trim().length();
-            if (len == 0 && openTags == 0) {
-                continue;
+        List<String> appendTo = new ArrayList<>();
+        for (Map.Entry<String, ExceptionExtractor.SheetRows> entry : sheets.entrySet()) {
+            if (entry.getValue().appendFrom > 0) {
+                appendTo.add(entry.getKey());
             }
+        }
 
-            // Check if session-id encountered at EOF
-            if (len >= 13 && len <= 15) {
-                boolean isDigitOnly = true;
-                for (char c : line.trim().toCharArray()) {
-                    if (!Character.isDigit(c)) {
-                        isDigitOnly = false;
-                        break;
+        if (WorkbookSplicer.canSplice(file, sheets.keySet())) {
+            File generated = File.createTempFile("exceptions", ".xlsx");
+            SXSSFWorkbook workbook = new SXSSFWorkbook(WorkbookSplicer.styleTemplate(file), ROW_WINDOW);
+            workbook.setCompressTempFiles(true);
+            try {
+                try (FileOutputStream fos = new FileOutputStream(generated)) {
+                    fillSheets(workbook, sheets, dmp, env, tester);
+                    // Each one is the first sheet of the template; in the workbook they are just appended
+                    for (Sheet sheet : workbook) {
+                        sheet.setSelected(false);
                     }
+                    workbook.write(fos);
+                } finally {
+                    workbook.dispose();
+                    workbook.close();
                 }
-
-                if (!isDigitOnly) {
-                    break;
-                }
-            }
-
-            openTags += calculateOpenTags(line);
-            if (openTags == 0) {
-                exceptions.add(exception.toString().trim());
-                exception.setLength(0);
-            } else {
-                exception.append(line);
+                WorkbookSplicer.splice(file, generated, appendTo);
+            } finally {
+                generated.delete();
             }
+            return;
         }
 
-        return exceptions;
-    }
+        Workbook workbook;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            workbook = WorkbookFactory.create(fis);
+        }
 
-    private static int calculateOpenTags(String line) {
-        int open = 0;
-        for (char c : line.toCharArray()) {
-            if (c == '<') {
-                open++;
-            } else if (c == '>') {
-                open--;
+        for (String sheetName : sheets.keySet()) {
+            Sheet sheet = workbook.getSheet(sheetName);
+            if (appendTo.contains(sheetName)) {
+                if (sheet == null) {
+                    workbook.close();
+                    throw new IOException("No sheet " + sheetName + " to append to in " + file);
+                }
+            } else if (sheet != null) {
+                workbook.removeSheetAt(workbook.getSheetIndex(sheet));
             }
         }
+        fillSheets(workbook, sheets, dmp, env, tester);
 
-        return open;
-    }
-
-    private static enum Flow {
-        NC("NC"),
-        COS("COS"),
-        CR("CR"),
-        RP("RP"),
-        MT("MT"),
-        BT("BT"),
-        SU("SU");
-
-        private final String label;
-
-        Flow(String label) {
-            this.label = label;
-        }
+        /* ================= WRITE FILE ================= */
 
-        String sheetName(boolean isOE) {
-            return label + (isOE ? " - OE" : " - CO");
+        try (Workbook wb = workbook;
+                FileOutputStream fos = new FileOutputStream(file)) {
+            wb.write(fos);
         }
     }
 
-    private static void createExcel(List<String> exceptions, Path excelPath,
-            Flow flow, int project, String dmp, String env, String tester) throws IOException {
-
-        File file = excelPath.toFile();
-        Workbook workbook;
-
-        if (file.exists()) {
-            try (FileInputStream fis = new FileInputStream(file)) {
-                workbook = WorkbookFactory.create(fis);
-            }
-        } else {
-            workbook = new XSSFWorkbook();
-        }
-
-        String sheetName = flow.sheetName(project == 1);
-
-        Sheet sheet = workbook.getSheet(sheetName);
-        if (sheet != null) {
-            workbook.removeSheetAt(workbook.getSheetIndex(sheet));
-        }
-        sheet = workbook.createSheet(sheetName);
+    private static void fillSheets(Workbook workbook, Map<String, ExceptionExtractor.SheetRows> sheets, String dmp,
+            String env, String tester) {
 
         /* ================= HEADER STYLE ================= */
 
         XSSFCellStyle headerStyle = (XSSFCellStyle) workbook.createCellStyle();
         headerStyle.setFillForegroundColor(
-                new XSSFColor(new java.awt.Color(233, 113, 50), null)); // #E97132
+                new XSSFColor(new byte[] { (byte) 0xFF, (byte) 0xE9, (byte) 0x71, (byte) 0x32 }, null)); // #E97132, opaque
         headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
         headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
         headerStyle.setAlignment(HorizontalAlignment.CENTER);
@@ -155,64 +129,86 @@ final class LogsToExcel {
         wrapStyle.setWrapText(true);
         wrapStyle.setVerticalAlignment(VerticalAlignment.TOP);
 
-        /* ================= CREATE HEADER ================= */
+        for (Map.Entry<String, ExceptionExtractor.SheetRows> entry : sheets.entrySet()) {
+            ExceptionExtractor.SheetRows rows = entry.getValue();
+            boolean append = rows.appendFrom > 0;
+            Sheet sheet = append ? workbook.getSheet(entry.getKey()) : null;
+            if (sheet == null) {
+                sheet = workbook.createSheet(entry.getKey());
+            }
+            if (!append && sheet instanceof SXSSFSheet) {
+                // Widths are measured as rows leave the window
+                ((SXSSFSheet) sheet).trackAllColumnsForAutoSizing();
+            }
 
-        Row header = sheet.createRow(0);
+            /* ================= CREATE HEADER ================= */
 
-        String[] headers = { "S.No.", "Exception", "DMP", "ENV", "Tester" };
+            String[] headers = rows.occurrences == null
+                    ? new String[] { "S.No.", "Exception", "DMP", "ENV", "Tester" }
+                    : new String[] { "S.No.", "Exception", "DMP", "ENV", "Tester", "Occurrences" };
 
-        for (int i = 0; i < headers.length; i++) {
-            Cell cell = header.createCell(i);
-            cell.setCellValue(headers[i]);
-            cell.setCellStyle(headerStyle);
-        }
+            if (!append) {
+                Row header = sheet.createRow(0);
 
-        /* ================= DATA ROWS ================= */
+                for (int i = 0; i < headers.length; i++) {
+                    Cell cell = header.createCell(i);
+                    cell.setCellValue(headers[i]);
+                    cell.setCellStyle(headerStyle);
+                }
+            }
 
-        int rowNum = 1;
-        for (String exception : exceptions) {
-            Row row = sheet.createRow(rowNum);
+            /* ================= DATA ROWS ================= */
 
-            Cell c0 = row.createCell(0);
-            c0.setCellValue(rowNum);
-            c0.setCellStyle(centerStyle);
+            int firstRow = append ? rows.appendFrom : 1;
+            int rowNum = firstRow;
+            for (String exception : rows.exceptions) {
+                Row row = sheet.createRow(rowNum);
 
-            Cell exceptionCell = row.createCell(1);
-            exceptionCell.setCellValue(exception.trim());
-            exceptionCell.setCellStyle(wrapStyle);
+                Cell c0 = row.createCell(0);
+                c0.setCellValue(rowNum);
+                c0.setCellStyle(centerStyle);
 
-            Cell c2 = row.createCell(2);
-            c2.setCellValue(dmp);
-            c2.setCellStyle(centerStyle);
+                Cell exceptionCell = row.createCell(1);
+                exceptionCell.setCellValue(exception.trim());
+                exceptionCell.setCellStyle(wrapStyle);
 
-            Cell c3 = row.createCell(3);
-            c3.setCellValue(env);
-            c3.setCellStyle(centerStyle);
+                Cell c2 = row.createCell(2);
+                c2.setCellValue(dmp);
+                c2.setCellStyle(centerStyle);
 
-            Cell c4 = row.createCell(4);
-            c4.setCellValue(tester);
-            c4.setCellStyle(centerStyle);
+                Cell c3 = row.createCell(3);
+                c3.setCellValue(env);
+                c3.setCellStyle(centerStyle);
 
-            row.setHeightInPoints(90);
+                Cell c4 = row.createCell(4);
+                c4.setCellValue(tester);
+                c4.setCellStyle(centerStyle);
 
-            rowNum++;
-        }
+                if (rows.occurrences != null) {
+                    Cell c5 = row.createCell(5);
+                    c5.setCellValue(rows.occurrences[rowNum - firstRow]);
+                    c5.setCellStyle(centerStyle);
+                }
+
+                row.setHeightInPoints(90);
 
-        /* ================= COLUMN WIDTH ================= */
+                rowNum++;
+            }
 
-        sheet.setColumnWidth(1, 100 * 256);
+            /* ================= COLUMN WIDTH ================= */
 
-        for (int i = 0; i < 5; i++) {
-            if (i != 1) {
-                sheet.autoSizeColumn(i);
+            if (append) {
+                // The sheet keeps the widths it was built with
+                continue;
             }
-        }
 
-        /* ================= WRITE FILE ================= */
+            sheet.setColumnWidth(1, 100 * 256);
 
-        try (Workbook wb = workbook;
-                FileOutputStream fos = new FileOutputStream(file)) {
-            wb.write(fos);
+            for (int i = 0; i < headers.length; i++) {
+                if (i != 1) {
+                    sheet.autoSizeColumn(i);
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,254 @@
+package com.amdocs.sanity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The pass/fail pie of the HTML report, encoded as PNG without AWT: starting it cost more than the chart, and its
+ * font is missing on some agents.
+ */
+final class PieChart {
+
+    private static final int SIZE = 220;
+    private static final int PADDING = 10;
+    /** Samples per pixel along each axis. */
+    private static final int SAMPLES = 4;
+
+    private static final int PASSED = 0x008000;
+    private static final int FAILED = 0xFF0000;
+    private static final int TEXT = 0xFFFFFF;
+
+    /** Label glyphs, 5 x 7 cells each. */
+    private static final String GLYPHS = "0123456789.,%";
+    private static final String[][] FONT = {
+            { " ### ", "#   #", "#  ##", "# # #", "##  #", "#   #", " ### " },
+            { "  #  ", " ##  ", "  #  ", "  #  ", "  #  ", "  #  ", " ### " },
+            { " ### ", "#   #", "    #", "   # ", "  #  ", " #   ", "#####" },
+            { "#####", "   # ", "  #  ", "   # ", "    #", "#   #", " ### " },
+            { "   # ", "  ## ", " # # ", "#  # ", "#####", "   # ", "   # " },
+            { "#####", "#    ", "#### ", "    #", "    #", "#   #", " ### " },
+            { "  ## ", " #   ", "#    ", "#### ", "#   #", "#   #", " ### " },
+            { "#####", "    #", "   # ", "  #  ", " #   ", " #   ", " #   " },
+            { " ### ", "#   #", "#   #", " ### ", "#   #", "#   #", " ### " },
+            { " ### ", "#   #", "#   #", " ####", "    #", "   # ", " ##  " },
+            { "     ", "     ", "     ", "     ", "     ", " ##  ", " ##  " },
+            { "     ", "     ", "     ", "     ", " ##  ", " ##  ", " #   " },
+            { "##   ", "##  #", "   # ", "  #  ", " #   ", "#  ##", "   ##" } };
+    /** Cell size in pixels: digits come out 10 pixels high, as those of a 13 pixel bold font. */
+    private static final double CELL = 10.0 / 7;
+    private static final int LINE_HEIGHT = 16;
+
+    private PieChart() {
+    }
+
+    static void writePng(int passedCount, int failedCount, Path file) throws IOException {
+        int diameter = SIZE - (PADDING * 2);
+        int center = SIZE / 2;
+        int radius = diameter / 2;
+
+        int total = passedCount + failedCount;
+        double passedPercent = total > 0 ? (passedCount * 100.0) / total : 0;
+        double failedPercent = total > 0 ? (failedCount * 100.0) / total : 0;
+
+        // Angles, counterclockwise from 3 o'clock; slices go clockwise from 12 o'clock, passed first
+        double passedAngle = passedPercent * 360.0 / 100.0;
+
+        int startAngle = 90;
+        int passedSweep = (int) Math.round(-passedAngle);
+        int failedSweep = -360 - passedSweep;
+
+        // Premultiplied red, green, blue and alpha of each pixel, 0 to 1
+        float[] image = new float[SIZE * SIZE * 4];
+        drawPie(image, center, radius, -passedSweep);
+
+        drawSliceText(image, center, radius * 0.65, startAngle + passedSweep / 2.0, passedCount, passedPercent);
+        drawSliceText(image, center, radius * 0.65, startAngle + passedSweep + failedSweep / 2.0, failedCount,
+                failedPercent);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(encodePng(image));
+        }
+    }
+
+    /** Fills the circle, on an empty image: clockwise from 12 o'clock, {@code passedDegrees} passed, then failed. */
+    private static void drawPie(float[] image, int center, int radius, int passedDegrees) {
+        int inside = SAMPLES * SAMPLES;
+        for (int y = center - radius - 1; y <= center + radius; y++) {
+            for (int x = center - radius - 1; x <= center + radius; x++) {
+                int passed = 0;
+                int failed = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    double dy = center - (y + (sy + 0.5) / SAMPLES);
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        double dx = x + (sx + 0.5) / SAMPLES - center;
+                        if (dx * dx + dy * dy > (double) radius * radius) {
+                            continue;
+                        }
+                        double clockwise = 90 - Math.toDegrees(Math.atan2(dy, dx));
+                        if (clockwise < 0) {
+                            clockwise += 360;
+                        }
+                        if (clockwise < passedDegrees) {
+                            passed++;
+                        } else {
+                            failed++;
+                        }
+                    }
+                }
+                if (passed + failed > 0) {
+                    int i = (y * SIZE + x) * 4;
+                    for (int c = 0; c < 3; c++) {
+                        int shift = 16 - c * 8;
+                        image[i + c] = (((PASSED >> shift) & 0xff) * passed + ((FAILED >> shift) & 0xff) * failed)
+                                / 255f / inside;
+                    }
+                    image[i + 3] = (float) (passed + failed) / inside;
+                }
+            }
+        }
+    }
+
+    private static void drawSliceText(float[] image, int center, double textRadius, double angleDeg, int count,
+            double percent) {
+
+        // Skip tiny slices (prevents unreadable overlap)
+        if (percent < 5) {
+            return;
+        }
+
+        double angleRad = Math.toRadians(angleDeg);
+
+        int x = (int) (center + textRadius * Math.cos(angleRad));
+        int y = (int) (center - textRadius * Math.sin(angleRad));
+
+        String line1 = String.valueOf(count);
+        String line2 = String.format("%.2f%%", percent);
+        if (!drawable(line2)) {
+            line2 = String.format(Locale.ROOT, "%.2f%%", percent);
+        }
+
+        drawString(image, line1, x - width(line1) / 2, y);
+        drawString(image, line2, x - width(line2) / 2, y + LINE_HEIGHT);
+    }
+
+    private static boolean drawable(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (GLYPHS.indexOf(text.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int width(String text) {
+        return (int) Math.round((text.length() * 6 - 1) * CELL);
+    }
+
+    /** Draws {@code text} from {@code left}, standing on {@code baseline}. */
+    private static void drawString(float[] image, String text, int left, int baseline) {
+        double top = baseline - 7 * CELL;
+        int right = left + width(text) + 1;
+        for (int y = (int) Math.floor(top); y < baseline; y++) {
+            for (int x = left; x < right; x++) {
+                int covered = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int row = (int) Math.floor((y + (sy + 0.5) / SAMPLES - top) / CELL);
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int column = (int) Math.floor((x + (sx + 0.5) / SAMPLES - left) / CELL);
+                        if (isSet(text, row, column)) {
+                            covered++;
+                        }
+                    }
+                }
+                if (covered > 0) {
+                    blend(image, x, y, TEXT, (float) covered / (SAMPLES * SAMPLES));
+                }
+            }
+        }
+    }
+
+    private static boolean isSet(String text, int row, int column) {
+        if (row < 0 || row >= 7 || column < 0) {
+            return false;
+        }
+        int glyph = column / 6;
+        int cell = column % 6;
+        if (glyph >= text.length() || cell == 5) {
+            return false;
+        }
+        return FONT[GLYPHS.indexOf(text.charAt(glyph))][row].charAt(cell) == '#';
+    }
+
+    /** Paints {@code rgb} with {@code coverage} over the pixel. */
+    private static void blend(float[] image, int x, int y, int rgb, float coverage) {
+        if (x < 0 || y < 0 || x >= SIZE || y >= SIZE) {
+            return;
+        }
+        int i = (y * SIZE + x) * 4;
+        float keep = 1 - coverage;
+        image[i] = ((rgb >> 16) & 0xff) / 255f * coverage + image[i] * keep;
+        image[i + 1] = ((rgb >> 8) & 0xff) / 255f * coverage + image[i + 1] * keep;
+        image[i + 2] = (rgb & 0xff) / 255f * coverage + image[i + 2] * keep;
+        image[i + 3] = coverage + image[i + 3] * keep;
+    }
+
+    /* ================= PNG ================= */
+
+    private static byte[] encodePng(float[] image) throws IOException {
+        ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(pixels)) {
+            byte[] row = new byte[1 + SIZE * 4];
+            for (int y = 0; y < SIZE; y++) {
+                // Filter type 0: the row as is
+                row[0] = 0;
+                for (int x = 0; x < SIZE; x++) {
+                    int i = (y * SIZE + x) * 4;
+                    float alpha = image[i + 3];
+                    for (int c = 0; c < 3; c++) {
+                        float color = alpha > 0 ? Math.min(1, image[i + c] / alpha) : 0;
+                        row[1 + x * 4 + c] = (byte) Math.round(color * 255);
+                    }
+                    row[1 + x * 4 + 3] = (byte) Math.round(Math.min(1, alpha) * 255);
+                }
+                deflater.write(row);
+            }
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(SIZE);
+        ihdr.writeInt(SIZE);
+        ihdr.writeByte(8); // bits per channel
+        ihdr.writeByte(6); // RGBA
+        ihdr.writeByte(0); // deflate
+        ihdr.writeByte(0); // adaptive filtering
+        ihdr.writeByte(0); // not interlaced
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+        chunk(out, "IHDR", header.toByteArray());
+        chunk(out, "IDAT", pixels.toByteArray());
+        chunk(out, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -1,42 +1,45 @@
 package com.amdocs.sanity;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 
 final class ReadyAPIReportGenerator {
 
+    /** Runs the history analysis looks at. */
+    private static final int HISTORY_RUNS = 20;
+
     private ReadyAPIReportGenerator() {
     }
 
-    private static class TestCase {
+    static class TestCase {
         String name;
         String status;
         double time;
@@ -50,7 +53,7 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static class TestSuite {
+    static class TestSuite {
         String name;
         double time;
         String status;
@@ -63,107 +66,248 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static class TestResults {
+    static class TestResults {
         List<TestSuite> testSuites = new ArrayList<>();
         int totalTests = 0;
         int totalPassed = 0;
         int totalFailed = 0;
         double totalTime = 0.0;
+        /** Suite, test case and step of each failed step, in report order. */
+        List<String[]> failedSteps = new ArrayList<>();
+        /** Fnv1a hash of the report file, taken as it is parsed. */
+        long contentHash;
     }
 
-    private static TestResults parseJUnitXml(File xmlFile, String apiResponsesDir)
-            throws IOException, ParserConfigurationException, SAXException {
+    // Reads the report in one forward pass; a testcase counts towards every testsuite it is in
+    static TestResults parseJUnitXml(File xmlFile) throws IOException {
         TestResults results = new TestResults();
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(xmlFile);
-        doc.getDocumentElement().normalize();
-
-        NodeList suiteNodes;
-
-        // Handle both testsuite and testsuites root elements
-        if (doc.getDocumentElement().getTagName().equals("testsuites")) {
-            suiteNodes = doc.getElementsByTagName("testsuite");
-        } else {
-            suiteNodes = doc.getChildNodes();
-        }
-
-        for (int i = 0; i < suiteNodes.getLength(); i++) {
-            if (suiteNodes.item(i) instanceof Element) {
-                Element suiteElement = (Element) suiteNodes.item(i);
-
-                if (!suiteElement.getTagName().equals("testsuite")) {
-                    continue;
+        try (InputStream file = new FileInputStream(xmlFile)) {
+            Fnv1a.HashingInputStream hashing = new Fnv1a.HashingInputStream(file);
+            // The XML reader closes its input at the end of the document, before the rest is hashed
+            InputStream in = new BufferedInputStream(hashing) {
+                @Override
+                public void close() {
                 }
+            };
+            XMLStreamReader reader = inputFactory().createXMLStreamReader(xmlFile.toURI().toString(), in);
+            try {
+                // Open testsuite elements, null for those that are not suites of their own
+                List<TestSuite> suites = new ArrayList<>();
+                boolean allSuites = false;
+                int depth = 0;
+
+                int caseDepth = -1;
+                String testCaseName = null;
+                double testTime = 0.0;
+                FailedStepScanner failure = null;
+                int failureDepth = -1;
+
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT: {
+                            depth++;
+                            String tag = reader.getLocalName();
+                            if (depth == 1) {
+                                allSuites = tag.equals("testsuites");
+                            }
+
+                            if (tag.equals("testsuite")) {
+                                TestSuite testSuite = null;
+                                if (allSuites || depth == 1) {
+                                    String nameVal = attribute(reader, "name");
+                                    String testSuiteName = nameVal.substring(nameVal.indexOf(".") + 1);
+                                    if (testSuiteName.isEmpty())
+                                        testSuiteName = "Unknown Suite";
+
+                                    double suiteTime = parseDouble(attribute(reader, "time"));
+
+                                    testSuite = new TestSuite(testSuiteName, suiteTime, "PASSED");
+                                    results.testSuites.add(testSuite);
+                                }
+                                suites.add(testSuite);
+                            } else if (tag.equals("testcase") && caseDepth < 0 && hasSuite(suites)) {
+                                caseDepth = depth;
+                                testCaseName = attribute(reader, "name");
+                                if (testCaseName.isEmpty())
+                                    testCaseName = "Unknown Test";
+
+                                testTime = parseDouble(attribute(reader, "time"));
+                            } else if (tag.equals("failure") && caseDepth > 0 && failure == null) {
+                                // Only the first failure of a test case counts
+                                failure = new FailedStepScanner();
+                                failureDepth = depth;
+                            }
+                            break;
+                        }
 
-                String nameVal = suiteElement.getAttribute("name");
-                String testSuiteName = nameVal.substring(nameVal.indexOf(".") + 1);
-                if (testSuiteName.isEmpty())
-                    testSuiteName = "Unknown Suite";
-
-                double suiteTime = parseDouble(suiteElement.getAttribute("time"));
-
-                TestSuite testSuite = new TestSuite(testSuiteName, suiteTime, "PASSED");
-
-                NodeList testCaseNodes = suiteElement.getElementsByTagName("testcase");
-
-                for (int j = 0; j < testCaseNodes.getLength(); j++) {
-                    Element testCaseElement = (Element) testCaseNodes.item(j);
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            if (failureDepth > 0 && !failure.done()) {
+                                failure.feed(reader.getTextCharacters(), reader.getTextStart(),
+                                        reader.getTextLength());
+                            }
+                            break;
+
+                        case XMLStreamConstants.END_ELEMENT: {
+                            if (depth == failureDepth) {
+                                failureDepth = -1;
+                            } else if (depth == caseDepth) {
+                                String status = "PASSED";
+                                String failedStep = "";
+
+                                if (failure != null) {
+                                    status = "FAILED";
+                                    failedStep = failure.step();
+                                    if (failedStep == null) {
+                                        throw new IOException("No failed step in the failure of test case "
+                                                + testCaseName);
+                                    }
+                                }
+
+                                for (TestSuite testSuite : suites) {
+                                    if (testSuite == null) {
+                                        continue;
+                                    }
+                                    if (failure != null) {
+                                        testSuite.status = "FAILED";
+                                        results.failedSteps.add(new String[] { testSuite.name, testCaseName, failedStep });
+                                        results.totalFailed++;
+                                    } else {
+                                        results.totalPassed++;
+                                    }
+
+                                    testSuite.testCases.add(new TestCase(testCaseName, status, testTime, failedStep));
+                                    results.totalTests++;
+                                    results.totalTime += testTime;
+                                }
+
+                                caseDepth = -1;
+                                failure = null;
+                            } else if (reader.getLocalName().equals("testsuite")) {
+                                suites.remove(suites.size() - 1);
+                            }
+                            depth--;
+                            break;
+                        }
 
-                    String testCaseName = testCaseElement.getAttribute("name");
-                    if (testCaseName.isEmpty())
-                        testCaseName = "Unknown Test";
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            // Whatever follows the root element is part of the file too
+            results.contentHash = hashing.drain();
+        } catch (XMLStreamException e) {
+            // The message holds the position and reason on two lines
+            throw new IOException(e.getMessage().replace('\n', ' '), e);
+        }
 
-                    double testTime = parseDouble(testCaseElement.getAttribute("time"));
+        return results;
+    }
 
-                    String status = "PASSED";
-                    String failedStep = "";
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Tag names are matched as written, prefix included
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        try {
+            // Hand large CDATA sections over in chunks rather than whole (JDK 9 and later)
+            factory.setProperty("jdk.xml.cdataChunkSize", 8192);
+        } catch (IllegalArgumentException e) {
+            // Older runtimes read a CDATA section whole
+        }
+        return factory;
+    }
 
-                    // Check for failure
-                    NodeList failures = testCaseElement.getElementsByTagName("failure");
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
 
-                    if (failures.getLength() > 0) {
-                        status = "FAILED";
-                        testSuite.status = "FAILED";
+    private static boolean hasSuite(List<TestSuite> suites) {
+        for (TestSuite testSuite : suites) {
+            if (testSuite != null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                        String failureText = failures.item(0).getTextContent();
+    /*
+     * Finds the failed step in a failure text as it streams by, as text.substring(text.indexOf("<b>") + 3,
+     * text.indexOf("Failed", that)).trim() does on the whole text.
+     */
+    private static final class FailedStepScanner {
+        private static final String BOLD = "<b>";
+        private static final String FAILED = "Failed";
+
+        private final StringBuilder kept = new StringBuilder();
+        private long seen;
+        /** Offset in the text of the first kept char; right after "<b>", or 2 while there is none. */
+        private long keptFrom = 2;
+        private int boldMatched;
+        private int failedMatched;
+        private boolean bold;
+        /** The step as long as no "<b>" follows. */
+        private String withoutBold;
+        private String step;
+
+        boolean done() {
+            return step != null;
+        }
 
-                        int begIdx = failureText.indexOf("<b>") + 3;
-                        int endIdx = failureText.indexOf("Failed", begIdx);
-                        failedStep = failureText.substring(begIdx, endIdx).trim();
+        void feed(char[] chars, int start, int length) {
+            for (int i = start; i < start + length && step == null; i++) {
+                char c = chars[i];
+                long offset = seen++;
+
+                if (!bold) {
+                    boldMatched = match(BOLD, boldMatched, c);
+                    if (boldMatched == BOLD.length()) {
+                        bold = true;
+                        keptFrom = seen;
+                        kept.setLength(0);
+                        failedMatched = 0;
+                        continue;
+                    }
+                    if (withoutBold != null) {
+                        continue;
+                    }
+                }
 
-                        // Rename failed step's api_response file
-                        if (apiResponsesDir != null && !apiResponsesDir.isEmpty()) {
-                            renameApiResponseFile(apiResponsesDir, testSuiteName, testCaseName, failedStep);
+                if (offset >= keptFrom) {
+                    kept.append(c);
+                }
+                failedMatched = match(FAILED, failedMatched, c);
+                if (failedMatched == FAILED.length()) {
+                    failedMatched = 0;
+                    if (seen - FAILED.length() >= keptFrom) {
+                        String found = kept.substring(0, kept.length() - FAILED.length()).trim();
+                        if (bold) {
+                            step = found;
+                        } else {
+                            withoutBold = found;
+                            kept.setLength(0);
                         }
-
-                        results.totalFailed++;
-                    } else {
-                        results.totalPassed++;
                     }
-
-                    testSuite.testCases.add(new TestCase(testCaseName, status, testTime, failedStep));
-                    results.totalTests++;
-                    results.totalTime += testTime;
                 }
-
-                results.testSuites.add(testSuite);
             }
         }
 
-        return results;
-    }
+        /** The failed step, or null when the text has none. */
+        String step() {
+            return step != null ? step : bold ? null : withoutBold;
+        }
 
-    private static void renameApiResponseFile(String apiResponsesDir, String testSuiteName, String testCaseName,
-            String failedStep) throws IOException {
-        failedStep = failedStep.replace("&amp;", "&");
-        Path oldPath = Paths.get(apiResponsesDir, testSuiteName, testCaseName, failedStep + ".txt");
-        Path newPath = oldPath.resolveSibling(failedStep + " ~FAILED.txt");
-        try {
-            Files.move(oldPath, newPath);
-        } catch (IOException e) {
-            throw new IOException("Failed to rename API response file: " + oldPath, e);
+        /** Advances a match of {@code word}, which has no prefix that is also its suffix. */
+        private static int match(String word, int matched, char c) {
+            if (word.charAt(matched) == c) {
+                return matched + 1;
+            }
+            return word.charAt(0) == c ? 1 : 0;
         }
     }
 
@@ -176,280 +320,384 @@ final class ReadyAPIReportGenerator {
             merged.totalPassed += results.totalPassed;
             merged.totalFailed += results.totalFailed;
             merged.totalTime += results.totalTime;
+            merged.failedSteps.addAll(results.failedSteps);
         }
 
         return merged;
     }
 
-    private static void generatePieChartImage(int passedCount, int failedCount, String outputFile) throws IOException {
-
-        int size = 220;
-        int padding = 10;
-
-        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = image.createGraphics();
-
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-
-        // Transparent background
-        g.setComposite(AlphaComposite.Clear);
-        g.fillRect(0, 0, size, size);
-        g.setComposite(AlphaComposite.SrcOver);
-
-        int diameter = size - (padding * 2);
-        int center = size / 2;
-        int radius = diameter / 2;
-
-        int total = passedCount + failedCount;
-        double passedPercent = total > 0 ? (passedCount * 100.0) / total : 0;
-        double failedPercent = total > 0 ? (failedCount * 100.0) / total : 0;
-
-        // Angles
-        double passedAngle = passedPercent * 360.0 / 100.0;
-
-        int startAngle = 90;
-        int passedSweep = (int) Math.round(-passedAngle);
-        int failedSweep = -360 - passedSweep;
-
-        // --- Draw slices ---
-        g.setColor(new Color(0, 128, 0)); // passed
-        g.fillArc(padding, padding, diameter, diameter, startAngle, passedSweep);
-
-        g.setColor(Color.RED); // failed
-        g.fillArc(padding, padding, diameter, diameter,
-                startAngle + passedSweep, failedSweep);
-
-        // --- Text settings ---
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Source Sans Pro", Font.BOLD, 13));
-
-        // Passed text
-        drawSliceText(
-                g,
-                center,
-                center,
-                radius * 0.65,
-                startAngle + passedSweep / 2.0,
-                passedCount,
-                passedPercent);
-
-        // Failed text
-        drawSliceText(
-                g,
-                center,
-                center,
-                radius * 0.65,
-                startAngle + passedSweep + failedSweep / 2.0,
-                failedCount,
-                failedPercent);
-
-        g.dispose();
-        ImageIO.write(image, "png", new File(outputFile));
-    }
+    // Writes summary-report.html as it goes, so memory does not grow with the number of test cases
+    private static void generateHtml(TestResults results, String outputPath, String jobName, HistoryAnalysis history)
+            throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String currentDate = dateFormat.format(new Date());
 
-    private static void drawSliceText(
-            Graphics2D g,
-            int centerX,
-            int centerY,
-            double textRadius,
-            double angleDeg,
-            int count,
-            double percent) {
+        PieChart.writePng(results.totalPassed, results.totalFailed, Paths.get(outputPath, "piechart.png"));
+
+        try (ReportWriter out = new ReportWriter(Paths.get(outputPath, "summary-report.html"))) {
+
+            out.write("<!doctype html>\n");
+            out.write("<html>\n");
+            out.write("<head>\n");
+            out.write("    <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n");
+            out.write("    <title>");
+            out.writeEscaped(jobName);
+            out.write("</title>\n");
+            out.write("</head>\n\n");
+            out.write("<body style=\"margin:0; padding:0; font-family: Arial, Helvetica, sans-serif;\">\n");
+            out.write(
+                    "    <table width=\"85%\" align=\"center\" cellpadding=\"0\" cellspacing=\"0\" style=\"margin:auto;\">\n");
+            out.write("        <tr>\n");
+            out.write("            <td>\n");
+            out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+            out.write("                <table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n");
+            out.write("                    <tr>\n");
+            out.write("                        <td align=\"center\">\n");
+            out.write("                            <h1 style=\"color:#1B3651; margin:0 0 8px 0;\">");
+            out.writeEscaped(jobName);
+            out.write("</h1>\n");
+            out.write("                        </td>\n");
+            out.write("                    </tr>\n");
+            out.write("                </table>\n");
+            out.write("                <p style=\"text-align:center; margin:0 0 8px 0; font-size:14px;\">\n");
+            out.write("                    Generated: ");
+            out.write(currentDate);
+            out.write("\n");
+            out.write("                </p>\n\n");
+
+            out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n\n");
+
+            out.write("                <h2 style=\"color:#C63; margin:16px 0 8px 0;\">SUMMARY</h2>\n\n");
+
+            out.write("                <table width=\"100%\" cellpadding=\"10\" cellspacing=\"0\">\n");
+            out.write("                    <tr valign=\"top\">\n");
+            out.write(
+                    "                        <td width=\"260\" style=\"border:1px solid #dddddd; background-color:#f5f5f5;\">\n");
+            out.write("                            <p style=\"margin:0 0 6px 0; font-size:14px;\">\n");
+            out.write("                                <strong style=\"color:#1B3651;\">Total Tests:</strong> ");
+            out.write(String.valueOf(results.totalTests));
+            out.write("\n");
+            out.write("                            </p>\n");
+            out.write("                            <p style=\"margin:0 0 12px 0; font-size:14px;\">\n");
+            out.write("                                <strong style=\"color:#1B3651;\">Total Time:</strong> ");
+            out.writeFixed3(results.totalTime);
+            out.write("s\n");
+            out.write("                            </p>\n");
+
+            out.write("                            <div style=\"text-align:center;\">\n");
+            out.write(
+                    "                                <img src=\"cid:piechart.png\" width=\"180\" alt=\"Resultant Pie Chart\" style=\"display:block; margin:auto;\">\n");
+            out.write("                            </div>\n");
+            out.write("                        </td>\n\n");
+
+            out.write("                        <td width=\"16\">&nbsp;</td>\n\n");
+
+            out.write("                        <td>\n");
+            out.write(
+                    "                            <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; border:2px solid #242424; font-size:14px;\">\n");
+            out.write("                                <tr>\n");
+            out.write(
+                    "                                    <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+            out.write("                                        Flow(s)\n");
+            out.write("                                    </th>\n");
+            out.write(
+                    "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+            out.write("                                        Result\n");
+            out.write("                                    </th>\n");
+            out.write(
+                    "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+            out.write("                                        Time(s)\n");
+            out.write("                                    </th>\n");
+            out.write("                                </tr>\n");
+
+            for (TestSuite testSuite : results.testSuites) {
+                String statusColor = testSuite.status.equals("PASSED") ? "#008000" : "#FF0000";
+
+                out.write("                                <tr>\n");
+                out.write("                                    <td style=\"border:1px solid #0D0000;\">\n");
+                out.write("                                        <a href=\"#");
+                out.writeAnchor(testSuite.name);
+                out.write("\" style=\"color:#000000; text-decoration:none;\">");
+                out.writeEscaped(testSuite.name);
+                out.write("</a>\n");
+                out.write("                                    </td>\n");
+                out.write("                                    <td bgcolor=\"");
+                out.write(statusColor);
+                out.write("\" style=\"border:1px solid #0D0000; color:#ffffff;\">\n");
+                out.write("                                        ");
+                out.write(testSuite.status);
+                out.write("\n");
+                out.write("                                    </td>\n");
+                out.write(
+                        "                                    <td style=\"border:1px solid #0D0000; text-align:right;\">\n");
+                out.write("                                        ");
+                out.writeFixed3(testSuite.time);
+                out.write("\n");
+                out.write("                                    </td>\n");
+                out.write("                                </tr>\n");
+            }
 
-        // Skip tiny slices (prevents unreadable overlap)
-        if (percent < 5) {
-            return;
-        }
+            out.write("                            </table>\n");
+            out.write("                        </td>\n");
+            out.write("                    </tr>\n");
+            out.write("                </table>\n\n");
 
-        double angleRad = Math.toRadians(angleDeg);
+            out.write("                <br>\n");
+            out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+            out.write("                <br>\n\n");
 
-        int x = (int) (centerX + textRadius * Math.cos(angleRad));
-        int y = (int) (centerY - textRadius * Math.sin(angleRad));
+            writeDurations(out, durations(results));
 
-        String line1 = String.valueOf(count);
-        String line2 = String.format("%.2f%%", percent);
+            if (history != null) {
+                writeHistory(out, history);
+            }
 
-        FontMetrics fm = g.getFontMetrics();
+            out.write("                <h2 style=\"color:#C63; margin:0 0 8px 0;\">TEST CASES DETAILS</h2>\n");
+
+            for (TestSuite testSuite : results.testSuites) {
+                out.write("                <h3 id=\"");
+                out.writeAnchor(testSuite.name);
+                out.write("\" style=\"color:#C63; margin:12px 0 8px 0;\">\n");
+                out.write("                    ");
+                out.writeEscaped(testSuite.name);
+                out.write("\n");
+                out.write("                </h3>\n\n");
+
+                out.write(
+                        "                <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; font-size:14px;\">\n");
+                out.write("                    <tr>\n");
+                out.write(
+                        "                        <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+                out.write("                            TestCase\n");
+                out.write("                        </th>\n");
+                out.write(
+                        "                        <th width=\"7%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+                out.write("                            Result\n");
+                out.write("                        </th>\n");
+                out.write(
+                        "                        <th width=\"5%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+                out.write("                            Time(s)\n");
+                out.write("                        </th>\n");
+                if (testSuite.status.equals("FAILED")) {
+                    out.write(
+                            "                        <th width=\"28%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+                    out.write("                            Failed Step\n");
+                    out.write("                        </th>\n");
+                }
+                out.write("                    </tr>\n");
+
+                for (TestCase testCase : testSuite.testCases) {
+                    String statusColor = testCase.status.equals("PASSED") ? "#008000" : "#FF0000";
+
+                    out.write("                    <tr>\n");
+                    out.write("                        <td style=\"border:1px solid #0D0000;\">\n");
+                    out.write("                            ");
+                    out.writeEscaped(testCase.name);
+                    out.write("\n");
+                    out.write("                        </td>\n");
+                    out.write("                        <td bgcolor=\"");
+                    out.write(statusColor);
+                    out.write("\" style=\"border:1px solid #0D0000; color:#ffffff;\">");
+                    out.write(testCase.status);
+                    out.write("</td>\n");
+                    out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                    out.writeFixed3(testCase.time);
+                    out.write("</td>\n");
+                    if (testSuite.status.equals("FAILED")) {
+                        out.write("                        <td style=\"border:1px solid #0D0000;\">");
+                        out.write(testCase.failedStep);
+                        out.write("</td>\n");
+                    }
+                    out.write("                    </tr>\n");
+                }
 
-        int line1Width = fm.stringWidth(line1);
-        int line2Width = fm.stringWidth(line2);
+                out.write("                </table>\n");
+                out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+            }
 
-        int lineHeight = fm.getHeight();
+            out.write("            </td>\n");
+            out.write("        </tr>\n");
+            out.write("    </table>\n");
+            out.write("</body>\n\n");
 
-        g.drawString(line1, x - line1Width / 2, y);
-        g.drawString(line2, x - line2Width / 2, y + lineHeight);
+            out.write("</html>\n");
+        }
     }
 
-    private static void generateHtml(TestResults results, String outputPath, String jobName) throws IOException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String currentDate = dateFormat.format(new Date());
-
-        StringBuilder html = new StringBuilder();
-
-        html.append("<!doctype html>\n");
-        html.append("<html>\n");
-        html.append("<head>\n");
-        html.append("    <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n");
-        html.append("    <title>" + escapeHtml(jobName) + "</title>\n");
-        html.append("</head>\n\n");
-        html.append("<body style=\"margin:0; padding:0; font-family: Arial, Helvetica, sans-serif;\">\n");
-        html.append(
-                "    <table width=\"85%\" align=\"center\" cellpadding=\"0\" cellspacing=\"0\" style=\"margin:auto;\">\n");
-        html.append("        <tr>\n");
-        html.append("            <td>\n");
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
-        html.append("                <table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n");
-        html.append("                    <tr>\n");
-        html.append("                        <td align=\"center\">\n");
-        html.append("                            <h1 style=\"color:#1B3651; margin:0 0 8px 0;\">" + escapeHtml(jobName)
-                + "</h1>\n");
-        html.append("                        </td>\n");
-        html.append("                    </tr>\n");
-        html.append("                </table>\n");
-        html.append("                <p style=\"text-align:center; margin:0 0 8px 0; font-size:14px;\">\n");
-        html.append("                    Generated: " + currentDate + "\n");
-        html.append("                </p>\n\n");
-
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n\n");
-
-        html.append("                <h2 style=\"color:#C63; margin:16px 0 8px 0;\">SUMMARY</h2>\n\n");
-
-        html.append("                <table width=\"100%\" cellpadding=\"10\" cellspacing=\"0\">\n");
-        html.append("                    <tr valign=\"top\">\n");
-        html.append(
-                "                        <td width=\"260\" style=\"border:1px solid #dddddd; background-color:#f5f5f5;\">\n");
-        html.append("                            <p style=\"margin:0 0 6px 0; font-size:14px;\">\n");
-        html.append("                                <strong style=\"color:#1B3651;\">Total Tests:</strong> "
-                + results.totalTests + "\n");
-        html.append("                            </p>\n");
-        html.append("                            <p style=\"margin:0 0 12px 0; font-size:14px;\">\n");
-        html.append("                                <strong style=\"color:#1B3651;\">Total Time:</strong> "
-                + String.format("%.3f", results.totalTime) + "s\n");
-        html.append("                            </p>\n");
-
-        generatePieChartImage(results.totalPassed, results.totalFailed, outputPath + File.separator + "piechart.png");
-
-        html.append("                            <div style=\"text-align:center;\">\n");
-        html.append(
-                "                                <img src=\"cid:piechart.png\" width=\"180\" alt=\"Resultant Pie Chart\" style=\"display:block; margin:auto;\">\n");
-        html.append("                            </div>\n");
-        html.append("                        </td>\n\n");
-
-        html.append("                        <td width=\"16\">&nbsp;</td>\n\n");
-
-        html.append("                        <td>\n");
-        html.append(
-                "                            <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; border:2px solid #242424; font-size:14px;\">\n");
-        html.append("                                <tr>\n");
-        html.append(
-                "                                    <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Flow(s)\n");
-        html.append("                                    </th>\n");
-        html.append(
-                "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Result\n");
-        html.append("                                    </th>\n");
-        html.append(
-                "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Time(s)\n");
-        html.append("                                    </th>\n");
-        html.append("                                </tr>\n");
+    /* ================= DURATIONS ================= */
 
+    private static DurationStats durations(TestResults results) {
+        DurationStats durations = new DurationStats();
         for (TestSuite testSuite : results.testSuites) {
-            String statusColor = testSuite.status.equals("PASSED") ? "#008000" : "#FF0000";
-            String anchorId = testSuite.name.replaceAll(" ", "_");
-
-            html.append("                                <tr>\n");
-            html.append("                                    <td style=\"border:1px solid #0D0000;\">\n");
-            html.append("                                        <a href=\"#" + anchorId
-                    + "\" style=\"color:#000000; text-decoration:none;\">" + escapeHtml(testSuite.name) + "</a>\n");
-            html.append("                                    </td>\n");
-            html.append("                                    <td bgcolor=\"" + statusColor
-                    + "\" style=\"border:1px solid #0D0000; color:#ffffff;\">\n");
-            html.append("                                        " + testSuite.status + "\n");
-            html.append("                                    </td>\n");
-            html.append(
-                    "                                    <td style=\"border:1px solid #0D0000; text-align:right;\">\n");
-            html.append("                                        " + String.format("%.3f", testSuite.time) + "\n");
-            html.append("                                    </td>\n");
-            html.append("                                </tr>\n");
-        }
-
-        html.append("                            </table>\n");
-        html.append("                        </td>\n");
-        html.append("                    </tr>\n");
-        html.append("                </table>\n\n");
-
-        html.append("                <br>\n");
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
-        html.append("                <br>\n\n");
-
-        html.append("                <h2 style=\"color:#C63; margin:0 0 8px 0;\">TEST CASES DETAILS</h2>\n");
+            for (TestCase testCase : testSuite.testCases) {
+                durations.add(testSuite.name, testCase.name, testCase.time);
+            }
+        }
+        return durations;
+    }
 
-        for (TestSuite testSuite : results.testSuites) {
-            String anchorId = testSuite.name.replaceAll(" ", "_");
-
-            html.append("                <h3 id=\"" + anchorId + "\" style=\"color:#C63; margin:12px 0 8px 0;\">\n");
-            html.append("                    " + escapeHtml(testSuite.name) + "\n");
-            html.append("                </h3>\n\n");
-
-            html.append(
-                    "                <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; font-size:14px;\">\n");
-            html.append("                    <tr>\n");
-            html.append(
-                    "                        <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            TestCase\n");
-            html.append("                        </th>\n");
-            html.append(
-                    "                        <th width=\"7%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            Result\n");
-            html.append("                        </th>\n");
-            html.append(
-                    "                        <th width=\"5%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            Time(s)\n");
-            html.append("                        </th>\n");
-            if (testSuite.status.equals("FAILED")) {
-                html.append(
-                        "                        <th width=\"28%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-                html.append("                            Failed Step\n");
-                html.append("                        </th>\n");
+    private static void writeDurations(ReportWriter out, DurationStats durations) throws IOException {
+        out.write("                <h2 style=\"color:#C63; margin:0 0 8px 0;\">DURATIONS</h2>\n");
+        writeTableHeader(out, new String[] { "Flow", "Tests", "p50(s)", "p90(s)", "p99(s)", "Max(s)" },
+                new String[] { "40%", "12%", "12%", "12%", "12%", "12%" });
+        for (Map.Entry<String, DurationStats.Histogram> entry : durations.suites.entrySet()) {
+            writePercentileRow(out, entry.getKey(), entry.getValue(), "");
+        }
+        writePercentileRow(out, "All", durations.overall, " font-weight:bold;");
+        out.write("                </table>\n");
+
+        out.write("                <h3 style=\"color:#C63; margin:12px 0 8px 0;\">Slowest Test Cases</h3>\n");
+        List<DurationStats.Slow> slowest = durations.slowest();
+        if (slowest.isEmpty()) {
+            out.write("                <p style=\"margin:0 0 8px 0; font-size:14px;\">None</p>\n");
+        } else {
+            writeTableHeader(out, new String[] { "Flow", "TestCase", "Time(s)" },
+                    new String[] { "40%", "48%", "12%" });
+            for (DurationStats.Slow slow : slowest) {
+                writeNameCells(out, slow.suite, slow.testCase);
+                out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                out.writeFixed3(slow.time);
+                out.write("</td>\n");
+                out.write("                    </tr>\n");
             }
-            html.append("                    </tr>\n");
+            out.write("                </table>\n");
+        }
 
-            for (TestCase testCase : testSuite.testCases) {
-                String statusColor = testCase.status.equals("PASSED") ? "#008000" : "#FF0000";
-
-                html.append("                    <tr>\n");
-                html.append("                        <td style=\"border:1px solid #0D0000;\">\n");
-                html.append("                            " + escapeHtml(testCase.name) + "\n");
-                html.append("                        </td>\n");
-                html.append("                        <td bgcolor=\"" + statusColor
-                        + "\" style=\"border:1px solid #0D0000; color:#ffffff;\">" + testCase.status + "</td>\n");
-                html.append("                        <td style=\"border:1px solid #0D0000; text-align:right;\">"
-                        + String.format("%.3f", testCase.time) + "</td>\n");
-                if (testSuite.status.equals("FAILED")) {
-                    html.append("                        <td style=\"border:1px solid #0D0000;\">" + testCase.failedStep
-                            + "</td>\n");
-                }
-                html.append("                    </tr>\n");
+        out.write("                <br>\n");
+        out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+        out.write("                <br>\n\n");
+    }
+
+    private static void writePercentileRow(ReportWriter out, String name, DurationStats.Histogram histogram,
+            String style) throws IOException {
+        out.write("                    <tr>\n");
+        out.write("                        <td style=\"border:1px solid #0D0000;");
+        out.write(style);
+        out.write("\">");
+        out.writeEscaped(name);
+        out.write("</td>\n");
+        out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;");
+        out.write(style);
+        out.write("\">");
+        out.write(String.valueOf(histogram.count()));
+        out.write("</td>\n");
+        long[] values = { histogram.percentile(50), histogram.percentile(90), histogram.percentile(99),
+                histogram.max() };
+        for (long millis : values) {
+            out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;");
+            out.write(style);
+            out.write("\">");
+            out.writeFixed3(millis / 1000.0);
+            out.write("</td>\n");
+        }
+        out.write("                    </tr>\n");
+    }
+
+    /* ================= HISTORY ================= */
+
+    private static void writeHistory(ReportWriter out, HistoryAnalysis history) throws IOException {
+        out.write("                <h2 style=\"color:#C63; margin:0 0 8px 0;\">HISTORY (LAST ");
+        out.write(String.valueOf(history.runs));
+        out.write(" RUNS)</h2>\n");
+
+        out.write("                <h3 style=\"color:#C63; margin:12px 0 8px 0;\">Flaky Tests</h3>\n");
+        if (history.flaky.isEmpty()) {
+            out.write("                <p style=\"margin:0 0 8px 0; font-size:14px;\">None</p>\n");
+        } else {
+            writeTableHeader(out, new String[] { "Flow", "TestCase", "Failed/Runs", "Status Changes" },
+                    new String[] { "30%", "40%", "15%", "15%" });
+            for (HistoryAnalysis.Flaky flaky : history.flaky) {
+                writeNameCells(out, flaky.suite, flaky.testCase);
+                out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                out.write(flaky.failed + "/" + flaky.runs);
+                out.write("</td>\n");
+                out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                out.write(String.valueOf(flaky.changes));
+                out.write("</td>\n");
+                out.write("                    </tr>\n");
+            }
+            out.write("                </table>\n");
+        }
+
+        out.write("                <h3 style=\"color:#C63; margin:12px 0 8px 0;\">Duration Regressions</h3>\n");
+        if (history.regressions.isEmpty()) {
+            out.write("                <p style=\"margin:0 0 8px 0; font-size:14px;\">None</p>\n");
+        } else {
+            writeTableHeader(out, new String[] { "Flow", "TestCase", "Time(s)", "Median Time(s)" },
+                    new String[] { "30%", "40%", "15%", "15%" });
+            for (HistoryAnalysis.Regression regression : history.regressions) {
+                writeNameCells(out, regression.suite, regression.testCase);
+                out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                out.writeFixed3(regression.millis / 1000.0);
+                out.write("</td>\n");
+                out.write("                        <td style=\"border:1px solid #0D0000; text-align:right;\">");
+                out.writeFixed3(regression.medianMillis / 1000.0);
+                out.write("</td>\n");
+                out.write("                    </tr>\n");
             }
+            out.write("                </table>\n");
+        }
+
+        out.write("                <br>\n");
+        out.write("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+        out.write("                <br>\n\n");
+    }
 
-            html.append("                </table>\n");
-            html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+    /** Opens a table and writes its header row. */
+    private static void writeTableHeader(ReportWriter out, String[] headers, String[] widths) throws IOException {
+        out.write(
+                "                <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; font-size:14px;\">\n");
+        out.write("                    <tr>\n");
+        for (int i = 0; i < headers.length; i++) {
+            out.write("                        <th width=\"");
+            out.write(widths[i]);
+            out.write("\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
+            out.write("                            ");
+            out.write(headers[i]);
+            out.write("\n");
+            out.write("                        </th>\n");
         }
+        out.write("                    </tr>\n");
+    }
 
-        html.append("            </td>\n");
-        html.append("        </tr>\n");
-        html.append("    </table>\n");
-        html.append("</body>\n\n");
+    /** Opens the row and writes its flow and test case cells. */
+    private static void writeNameCells(ReportWriter out, String suite, String testCase) throws IOException {
+        out.write("                    <tr>\n");
+        out.write("                        <td style=\"border:1px solid #0D0000;\">");
+        out.writeEscaped(suite);
+        out.write("</td>\n");
+        out.write("                        <td style=\"border:1px solid #0D0000;\">");
+        out.writeEscaped(testCase);
+        out.write("</td>\n");
+    }
 
-        html.append("</html>\n");
+    // Adds this run to the job's run history, in place of the run of the same reports, and analyzes the last
+    // HISTORY_RUNS runs
+    private static HistoryAnalysis recordHistory(TestResults results, long identity, Path historyDir, String jobName)
+            throws IOException {
+        try (RunHistory history = RunHistory.open(historyDir, jobName)) {
+            int size = 0;
+            for (TestSuite testSuite : results.testSuites) {
+                size += testSuite.testCases.size();
+            }
 
-        try (FileWriter writer = new FileWriter(outputPath + File.separator + "summary-report.html")) {
-            writer.write(html.toString());
+            int[] suites = new int[size];
+            int[] testCases = new int[size];
+            boolean[] failed = new boolean[size];
+            int[] millis = new int[size];
+            int i = 0;
+            for (TestSuite testSuite : results.testSuites) {
+                for (TestCase testCase : testSuite.testCases) {
+                    suites[i] = history.id(testSuite.name);
+                    testCases[i] = history.id(testCase.name);
+                    failed[i] = testCase.status.equals("FAILED");
+                    millis[i] = (int) Math.min(Integer.MAX_VALUE, Math.round(testCase.time * 1000));
+                    i++;
+                }
+            }
+            history.append(new RunHistory.Run(System.currentTimeMillis(), identity, suites, testCases, failed,
+                    millis));
+            return HistoryAnalysis.analyze(history, history.lastRuns(HISTORY_RUNS));
         }
     }
 
@@ -461,15 +709,105 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static String escapeHtml(String text) {
-        if (text == null || text.isEmpty()) {
-            return "";
+    /*
+     * Buffered UTF-8 writer of the HTML report, with the conversions the report needs done without building strings.
+     */
+    private static final class ReportWriter implements Closeable {
+        private final Writer writer;
+        /** Digits and decimal separator of String.format in the default locale. */
+        private final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        private final char zero;
+        private final char separator;
+        private final char[] digits = new char[24];
+
+        ReportWriter(Path file) throws IOException {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            zero = symbols.getZeroDigit();
+            separator = symbols.getDecimalSeparator();
+        }
+
+        void write(String text) throws IOException {
+            writer.write(text);
+        }
+
+        /** Writes {@code text} with &, <, >, " and ' escaped; null is written as nothing. */
+        void writeEscaped(String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            int from = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String entity;
+                switch (text.charAt(i)) {
+                    case '&':
+                        entity = "&amp;";
+                        break;
+                    case '<':
+                        entity = "&lt;";
+                        break;
+                    case '>':
+                        entity = "&gt;";
+                        break;
+                    case '"':
+                        entity = "&quot;";
+                        break;
+                    case '\'':
+                        entity = "&#39;";
+                        break;
+                    default:
+                        continue;
+                }
+                writer.write(text, from, i - from);
+                writer.write(entity);
+                from = i + 1;
+            }
+            writer.write(text, from, text.length() - from);
+        }
+
+        /** Writes the anchor of a suite: its name with spaces turned into underscores, as is. */
+        void writeAnchor(String name) throws IOException {
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                writer.write(c == ' ' ? '_' : c);
+            }
+        }
+
+        /** Writes {@code value} as String.format("%.3f", value) does, falling back to it where rounding is close. */
+        void writeFixed3(double value) throws IOException {
+            double thousandths = value * 1000;
+            if (!(value >= 0 && value < 1e6)) {
+                writer.write(String.format(locale, "%.3f", value));
+                return;
+            }
+            long units = (long) thousandths;
+            double fraction = thousandths - units;
+            if (Math.abs(fraction - 0.5) < 1e-6) {
+                // String.format rounds the shortest decimal form half up, which the product may be off from
+                writer.write(String.format(locale, "%.3f", value));
+                return;
+            }
+            if (fraction > 0.5) {
+                units++;
+            }
+
+            int pos = digits.length;
+            for (int i = 0; i < 3; i++) {
+                digits[--pos] = (char) (zero + units % 10);
+                units /= 10;
+            }
+            digits[--pos] = separator;
+            do {
+                digits[--pos] = (char) (zero + units % 10);
+                units /= 10;
+            } while (units > 0);
+            writer.write(digits, pos, digits.length - pos);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
         }
-        return text.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#39;");
     }
 
     static final class ReportSummary {
@@ -477,17 +815,70 @@ final class ReadyAPIReportGenerator {
         final int totalPassed;
         final int totalFailed;
         final double totalTime;
+        /** The failed responses manifest, null when no api responses directory was given. */
+        final Path failedResponsesManifest;
+        /** Null when no history directory was given. */
+        final HistoryAnalysis history;
 
-        ReportSummary(int totalTests, int totalPassed, int totalFailed, double totalTime) {
+        ReportSummary(int totalTests, int totalPassed, int totalFailed, double totalTime,
+                Path failedResponsesManifest, HistoryAnalysis history) {
             this.totalTests = totalTests;
             this.totalPassed = totalPassed;
             this.totalFailed = totalFailed;
             this.totalTime = totalTime;
+            this.failedResponsesManifest = failedResponsesManifest;
+            this.history = history;
+        }
+    }
+
+    /*
+     * Parses the files concurrently, results in file order. A failure does not stop the others; the first one is thrown
+     * once all were parsed. Files the cache holds are loaded from it instead.
+     */
+    private static List<TestResults> parseAll(List<File> xmlFiles, ReportCache cache, Consumer<String> logger)
+            throws IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Tasks.cpuThreads(xmlFiles.size()));
+        try {
+            List<Future<TestResults>> futures = new ArrayList<>();
+            for (File xmlFile : xmlFiles) {
+                if (cache != null) {
+                    futures.add(executor.submit(() -> cache.get(xmlFile, ReadyAPIReportGenerator::parseJUnitXml)));
+                } else {
+                    futures.add(executor.submit(() -> parseJUnitXml(xmlFile)));
+                }
+            }
+
+            List<TestResults> allResults = new ArrayList<>();
+            List<Exception> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                File xmlFile = xmlFiles.get(i);
+                // Logged as the results are collected, so the messages of a file stay together and in file order
+                logger.accept("Parsing: " + xmlFile.getPath());
+                try {
+                    allResults.add(Tasks.await(futures.get(i), "parsing " + xmlFile));
+                } catch (IOException | RuntimeException e) {
+                    logger.accept("Failed to parse " + xmlFile.getPath() + ": " + e.getMessage());
+                    failures.add(e);
+                }
+            }
+
+            if (!failures.isEmpty()) {
+                IOException e = new IOException("Could not parse " + failures.size() + " of " + xmlFiles.size()
+                        + " XML file(s)", failures.get(0));
+                for (Exception other : failures.subList(1, failures.size())) {
+                    e.addSuppressed(other);
+                }
+                throw e;
+            }
+            return allResults;
+        } finally {
+            executor.shutdownNow();
         }
     }
 
     static ReportSummary generateReport(String inputPath, String outputPath, String jobName, String apiResponsesDir,
-            Consumer<String> logger) throws IOException, ParserConfigurationException, SAXException {
+            String historyDir, String reportCache, Consumer<String> logger) throws IOException {
 
         if (logger == null) {
             logger = s -> {
@@ -517,12 +908,17 @@ final class ReadyAPIReportGenerator {
 
         logger.accept("Found " + xmlFiles.size() + " XML file(s)");
 
-        // Parse all XML files
-        List<TestResults> allResults = new ArrayList<>();
-        for (File xmlFile : xmlFiles) {
-            logger.accept("Parsing: " + xmlFile.getPath());
-            TestResults results = parseJUnitXml(xmlFile, apiResponsesDir);
-            allResults.add(results);
+        // Parse all XML files; merged in path order whatever order the walk found them in
+        Collections.sort(xmlFiles);
+        ReportCache cache = null;
+        if (reportCache != null && !reportCache.isEmpty()) {
+            cache = ReportCache.load(Paths.get(reportCache));
+        }
+        List<TestResults> allResults = parseAll(xmlFiles, cache, logger);
+        if (cache != null) {
+            cache.save();
+            logger.accept("Loaded " + cache.hits() + " of " + xmlFiles.size() + " XML file(s) from the report cache: "
+                    + reportCache);
         }
 
         // Merge results if multiple files
@@ -534,15 +930,44 @@ final class ReadyAPIReportGenerator {
             finalResults = allResults.get(0);
         }
 
+        // Rename failed steps' api_response files, once all reports were parsed
+        Path manifest = null;
+        if (apiResponsesDir != null && !apiResponsesDir.isEmpty()) {
+            FailedResponses failedResponses = new FailedResponses();
+            for (String[] failedStep : finalResults.failedSteps) {
+                failedResponses.add(apiResponsesDir, failedStep[0], failedStep[1], failedStep[2]);
+            }
+            failedResponses.renameAll(logger);
+
+            manifest = Paths.get(outputPath, FailedResponses.MANIFEST);
+            failedResponses.writeManifest(manifest);
+            logger.accept("Failed responses manifest written: " + manifest);
+        }
+
+        HistoryAnalysis history = null;
+        if (historyDir != null && !historyDir.isEmpty()) {
+            // The run is identified by the content of its reports, so regenerating the report does not add a run
+            long identity = Fnv1a.OFFSET_BASIS;
+            for (TestResults results : allResults) {
+                identity = Fnv1a.addLong(identity, results.contentHash);
+            }
+            history = recordHistory(finalResults, identity, Paths.get(historyDir), jobName);
+            logger.accept("Run added to history: " + historyDir + " (" + history.flaky.size() + " flaky test(s), "
+                    + history.regressions.size() + " duration regression(s) over the last " + history.runs
+                    + " run(s))");
+        }
+
         String htmlReportPath = outputPath + File.separator + "summary-report.html";
         logger.accept("Generating HTML report: " + htmlReportPath);
-        generateHtml(finalResults, outputPath, jobName);
+        generateHtml(finalResults, outputPath, jobName, history);
         logger.accept("HTML report generated: " + htmlReportPath);
 
         return new ReportSummary(
                 finalResults.totalTests,
                 finalResults.totalPassed,
                 finalResults.totalFailed,
-                finalResults.totalTime);
+                finalResults.totalTime,
+                manifest,
+                history);
     }
 }
\ No newline at end of file
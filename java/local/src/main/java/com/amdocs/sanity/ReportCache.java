@@ -0,0 +1,239 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parsed JUnit reports of earlier runs, by path with size, modification time and content hash. A report of the same
+ * size is taken as is if it was not modified or its hash is the same; anything else is parsed.
+ */
+final class ReportCache {
+
+    private static final int MAGIC = 0x52505443;
+    /** To be raised whenever parsing or the record layout changes: records of another version are dropped. */
+    private static final int VERSION = 1;
+
+    interface Parser {
+        /** Parses {@code xmlFile}, setting the contentHash of the results. */
+        ReadyAPIReportGenerator.TestResults parse(File xmlFile) throws IOException;
+    }
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final long hash;
+        final byte[] record;
+
+        Entry(long size, long modified, long hash, byte[] record) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.record = record;
+        }
+    }
+
+    private final Path file;
+    /** Read only once loaded. */
+    private final Map<String, Entry> cached = new HashMap<>();
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private ReportCache(Path file) {
+        this.file = file;
+    }
+
+    /** Loads the cache; a missing, unreadable or outdated one is started afresh. */
+    static ReportCache load(Path file) {
+        ReportCache cache = new ReportCache(file);
+        try {
+            cache.read();
+        } catch (IOException | RuntimeException e) {
+            cache.cached.clear();
+        }
+        return cache;
+    }
+
+    /** The results of {@code xmlFile}, from the cache or else from {@code parser}. */
+    ReadyAPIReportGenerator.TestResults get(File xmlFile, Parser parser) throws IOException {
+        Path path = xmlFile.toPath();
+        String key = path.toAbsolutePath().normalize().toString();
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+
+        Entry entry = cached.get(key);
+        if (entry != null && entry.size == size) {
+            long hash = entry.modified == modified ? entry.hash : Fnv1a.hash(path);
+            if (hash == entry.hash) {
+                current.put(key, new Entry(size, modified, hash, entry.record));
+                hits.incrementAndGet();
+                ReadyAPIReportGenerator.TestResults results = readRecord(entry.record);
+                results.contentHash = hash;
+                return results;
+            }
+        }
+
+        // The parser hashes the file as it reads it
+        ReadyAPIReportGenerator.TestResults results = parser.parse(xmlFile);
+        current.put(key, new Entry(size, modified, results.contentHash, writeRecord(results)));
+        return results;
+    }
+
+    /** Reports taken from the cache so far. */
+    int hits() {
+        return hits.get();
+    }
+
+    void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(current).entrySet()) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.size);
+                out.writeLong(value.modified);
+                out.writeLong(value.hash);
+                out.writeInt(value.record.length);
+                out.write(value.record);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long hash = in.readLong();
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                cached.put(key, new Entry(size, modified, hash, record));
+            }
+        } catch (NoSuchFileException e) {
+            // First run with this cache
+        }
+    }
+
+    /* ================= RECORDS ================= */
+
+    private static byte[] writeRecord(ReadyAPIReportGenerator.TestResults results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Map<String, Integer> strings = new HashMap<>();
+            out.writeInt(results.totalTests);
+            out.writeInt(results.totalPassed);
+            out.writeInt(results.totalFailed);
+            out.writeDouble(results.totalTime);
+
+            out.writeInt(results.testSuites.size());
+            for (ReadyAPIReportGenerator.TestSuite testSuite : results.testSuites) {
+                writeString(out, strings, testSuite.name);
+                out.writeDouble(testSuite.time);
+                writeString(out, strings, testSuite.status);
+                out.writeInt(testSuite.testCases.size());
+                for (ReadyAPIReportGenerator.TestCase testCase : testSuite.testCases) {
+                    writeString(out, strings, testCase.name);
+                    writeString(out, strings, testCase.status);
+                    out.writeDouble(testCase.time);
+                    writeString(out, strings, testCase.failedStep);
+                }
+            }
+
+            out.writeInt(results.failedSteps.size());
+            for (String[] failedStep : results.failedSteps) {
+                for (String part : failedStep) {
+                    writeString(out, strings, part);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ReadyAPIReportGenerator.TestResults readRecord(byte[] record) throws IOException {
+        ReadyAPIReportGenerator.TestResults results = new ReadyAPIReportGenerator.TestResults();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            List<String> strings = new ArrayList<>();
+            results.totalTests = in.readInt();
+            results.totalPassed = in.readInt();
+            results.totalFailed = in.readInt();
+            results.totalTime = in.readDouble();
+
+            int suites = in.readInt();
+            for (int i = 0; i < suites; i++) {
+                String name = readString(in, strings);
+                double time = in.readDouble();
+                ReadyAPIReportGenerator.TestSuite testSuite = new ReadyAPIReportGenerator.TestSuite(name, time,
+                        readString(in, strings));
+                int testCases = in.readInt();
+                for (int j = 0; j < testCases; j++) {
+                    String testCaseName = readString(in, strings);
+                    String status = readString(in, strings);
+                    double testTime = in.readDouble();
+                    testSuite.testCases.add(new ReadyAPIReportGenerator.TestCase(testCaseName, status, testTime,
+                            readString(in, strings)));
+                }
+                results.testSuites.add(testSuite);
+            }
+
+            int failedSteps = in.readInt();
+            for (int i = 0; i < failedSteps; i++) {
+                results.failedSteps.add(new String[] { readString(in, strings), readString(in, strings),
+                        readString(in, strings) });
+            }
+        }
+        return results;
+    }
+
+    /** The number of a string written before, else -1 and the string. */
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String value)
+            throws IOException {
+        Integer number = strings.get(value);
+        if (number != null) {
+            out.writeInt(number);
+            return;
+        }
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(-1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int number = in.readInt();
+        if (number >= 0) {
+            return strings.get(number);
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,281 @@
+package com.amdocs.sanity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only store of the test case results of every run of a job: &lt;job&gt;.names (name dictionary), .runs (one
+ * block of columns per run) and .index (one fixed-width entry per run, written last to commit it). A run added again
+ * under the same identity is appended too and supersedes the earlier entry, which readers skip; its block stays in
+ * .runs.
+ */
+final class RunHistory implements Closeable {
+
+    private static final int MAGIC = 0x52484953;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    /** Time, identity, block offset, result count, name count. */
+    private static final int ENTRY = 8 + 8 + 8 + 4 + 4;
+    /** Suite id, test case id, status, duration. */
+    private static final int RESULT = 4 + 4 + 1 + 4;
+
+    /** Results of one run, column by column. */
+    static final class Run {
+        final long time;
+        /** Reports the run was read from, 0 if unknown. */
+        final long identity;
+        final int[] suites;
+        final int[] testCases;
+        final boolean[] failed;
+        final int[] millis;
+
+        Run(long time, long identity, int[] suites, int[] testCases, boolean[] failed, int[] millis) {
+            this.time = time;
+            this.identity = identity;
+            this.suites = suites;
+            this.testCases = testCases;
+            this.failed = failed;
+            this.millis = millis;
+        }
+
+        int size() {
+            return suites.length;
+        }
+    }
+
+    private final Path namesFile;
+    private final Path runsFile;
+    private final Path indexFile;
+    private final FileChannel index;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    /** Committed runs and what they hold. */
+    private long entries;
+    /** Entries not superseded, in index order, and the latest entry of each identity. */
+    private final List<Long> live = new ArrayList<>();
+    private final Map<Long, Long> latest = new HashMap<>();
+    private int storedNames;
+    private long namesEnd;
+    private long runsEnd;
+
+    private RunHistory(Path dir, String base, FileChannel index) {
+        this.namesFile = dir.resolve(base + ".names");
+        this.runsFile = dir.resolve(base + ".runs");
+        this.indexFile = dir.resolve(base + ".index");
+        this.index = index;
+    }
+
+    static RunHistory open(Path dir, String jobName) throws IOException {
+        Files.createDirectories(dir);
+        String base = jobName.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + Integer.toHexString(jobName.hashCode());
+        FileChannel index = FileChannel.open(dir.resolve(base + ".index"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            index.lock();
+            RunHistory history = new RunHistory(dir, base, index);
+            history.readIndex();
+            history.readNames();
+            return history;
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /** Id of {@code name}; a new name is stored with the next run added. */
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /** Adds a run whose names were taken from {@link #id(String)}, replacing the run of the same identity. */
+    void append(Run run) throws IOException {
+        long newNamesEnd = namesEnd;
+        try (FileChannel channel = FileChannel.open(namesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(namesEnd);
+            for (String name : names.subList(storedNames, names.size())) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+                buffer.putInt(0, bytes.length);
+                System.arraycopy(bytes, 0, buffer.array(), 4, bytes.length);
+                newNamesEnd = writeFully(channel, buffer, newNamesEnd);
+            }
+            channel.force(false);
+        }
+
+        // Absolute puts and gets only: the Buffer methods that move the position differ between Java 8 and 9
+        int size = run.size();
+        ByteBuffer block = ByteBuffer.allocate(size * RESULT);
+        for (int i = 0; i < size; i++) {
+            block.putInt(i * 4, run.suites[i]);
+            block.putInt(size * 4 + i * 4, run.testCases[i]);
+            block.put(size * 8 + i, (byte) (run.failed[i] ? 1 : 0));
+            block.putInt(size * 9 + i * 4, run.millis[i]);
+        }
+        try (FileChannel channel = FileChannel.open(runsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(runsEnd);
+            writeFully(channel, block, runsEnd);
+            channel.force(false);
+        }
+
+        if (entries == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            writeFully(index, header, 0);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+        entry.putLong(0, run.time);
+        entry.putLong(8, run.identity);
+        entry.putLong(16, runsEnd);
+        entry.putInt(24, size);
+        entry.putInt(28, names.size());
+        long position = HEADER + entries * ENTRY;
+        index.truncate(position);
+        writeFully(index, entry, position);
+        index.force(false);
+
+        if (run.identity != 0) {
+            Long superseded = latest.put(run.identity, entries);
+            if (superseded != null) {
+                live.remove(superseded);
+            }
+        }
+        live.add(entries);
+        entries++;
+        storedNames = names.size();
+        namesEnd = newNamesEnd;
+        runsEnd += block.capacity();
+    }
+
+    /** The last {@code count} runs at most, oldest first. */
+    List<Run> lastRuns(int count) throws IOException {
+        List<Run> runs = new ArrayList<>();
+        if (live.isEmpty()) {
+            return runs;
+        }
+        try (FileChannel channel = FileChannel.open(runsFile, StandardOpenOption.READ)) {
+            for (long i : live.subList(Math.max(0, live.size() - count), live.size())) {
+                ByteBuffer entry = readEntry(i);
+                int size = entry.getInt(24);
+                ByteBuffer block = ByteBuffer.allocate(size * RESULT);
+                readFully(channel, block, entry.getLong(16));
+
+                int[] suites = new int[size];
+                int[] testCases = new int[size];
+                boolean[] failed = new boolean[size];
+                int[] millis = new int[size];
+                for (int j = 0; j < size; j++) {
+                    suites[j] = block.getInt(j * 4);
+                    testCases[j] = block.getInt(size * 4 + j * 4);
+                    failed[j] = block.get(size * 8 + j) != 0;
+                    millis[j] = block.getInt(size * 9 + j * 4);
+                }
+                runs.add(new Run(entry.getLong(0), entry.getLong(8), suites, testCases, failed, millis));
+            }
+        }
+        return runs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Releases the lock as well
+        index.close();
+    }
+
+    private void readIndex() throws IOException {
+        long size = index.size();
+        if (size < HEADER) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(index, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a run history index of this version: " + indexFile);
+        }
+        entries = (size - HEADER) / ENTRY;
+        ByteBuffer all = ByteBuffer.allocate((int) (entries * ENTRY));
+        readFully(index, all, HEADER);
+        for (long i = 0; i < entries; i++) {
+            long identity = all.getLong((int) i * ENTRY + 8);
+            if (identity != 0) {
+                latest.put(identity, i);
+            }
+        }
+        for (long i = 0; i < entries; i++) {
+            long identity = all.getLong((int) i * ENTRY + 8);
+            if (identity == 0 || latest.get(identity) == i) {
+                live.add(i);
+            }
+        }
+        if (entries > 0) {
+            // The last entry is the last one written, so its block and names are the last ones too
+            int last = (int) (entries - 1) * ENTRY;
+            runsEnd = all.getLong(last + 16) + (long) all.getInt(last + 24) * RESULT;
+            storedNames = all.getInt(last + 28);
+        }
+    }
+
+    private void readNames() throws IOException {
+        if (storedNames == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(namesFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+            readFully(channel, buffer, 0);
+            int position = 0;
+            for (int i = 0; i < storedNames; i++) {
+                if (position + 4 > buffer.capacity()
+                        || position + 4 + buffer.getInt(position) > buffer.capacity()) {
+                    throw new IOException("Run history file ends before its index says: " + namesFile);
+                }
+                int length = buffer.getInt(position);
+                id(new String(buffer.array(), position + 4, length, StandardCharsets.UTF_8));
+                position += 4 + length;
+            }
+            namesEnd = position;
+        }
+    }
+
+    private ByteBuffer readEntry(long i) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+        readFully(index, entry, HEADER + i * ENTRY);
+        return entry;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Run history file ends before its index says");
+            }
+            position += n;
+        }
+    }
+}
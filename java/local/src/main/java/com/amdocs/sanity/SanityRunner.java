@@ -3,20 +3,63 @@ package com.amdocs.sanity;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class SanityRunner {
 
     private SanityRunner() {
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] arguments) {
+        boolean parallelFlows = false;
+        boolean cluster = false;
+        String format = "xlsx";
+        boolean incremental = false;
+        boolean linkResponses = false;
+        boolean fromManifest = false;
+        String historyDir = null;
+        String reportCache = null;
+        List<String> positional = new ArrayList<>();
+        for (String argument : arguments) {
+            if (argument.equals("--parallel-flows")) {
+                parallelFlows = true;
+            } else if (argument.equals("--cluster")) {
+                cluster = true;
+            } else if (argument.equals("--incremental")) {
+                incremental = true;
+            } else if (argument.equals("--link-responses")) {
+                linkResponses = true;
+            } else if (argument.equals("--from-manifest")) {
+                fromManifest = true;
+            } else if (argument.startsWith("--history=")) {
+                historyDir = argument.substring("--history=".length());
+            } else if (argument.startsWith("--report-cache=")) {
+                reportCache = argument.substring("--report-cache=".length());
+            } else if (argument.startsWith("--format=")) {
+                format = argument.substring("--format=".length()).toLowerCase();
+                if (!format.equals("xlsx") && !format.equals("csv") && !format.equals("jsonl")) {
+                    System.err.println("Format must be xlsx, csv or jsonl");
+                    System.exit(1);
+                }
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (incremental && (cluster || !format.equals("xlsx"))) {
+            System.err.println("--incremental only applies to the xlsx format without --cluster");
+            System.exit(1);
+        }
+
         int argsForBasicSanity = 5;
         int argsForExtendedSanity = 11;
         if (args.length != argsForBasicSanity && args.length != argsForExtendedSanity) {
             System.err.println(
-                    "Usage: java SanityRunner <input_junit_report_dir> <output_dir> <job_name> <input_api_responses_dir> <output_failed_responses_dir>");
+                    "Usage: java SanityRunner <input_junit_report_dir> <output_dir> <job_name> <input_api_responses_dir> <output_failed_responses_dir> [--link-responses] [--from-manifest] [--history=<dir>] [--report-cache=<file>]");
             System.err.println(
-                    "Usage: java SanityRunner <input_junit_report_dir> <output_dir> <job_name> <input_api_responses_dir> <output_failed_responses_dir> <input_log_file> <flows_separated_by_|> <project (OE/CO)> <DMP> <env> <tester_name>");
+                    "Usage: java SanityRunner <input_junit_report_dir> <output_dir> <job_name> <input_api_responses_dir> <output_failed_responses_dir> <input_log_file> <flows_separated_by_|> <project (OE/CO)> <DMP> <env> <tester_name> [--parallel-flows] [--cluster] [--format=xlsx|csv|jsonl] [--incremental] [--link-responses] [--from-manifest] [--history=<dir>] [--report-cache=<file>]");
             System.exit(1);
         }
 
@@ -34,6 +77,8 @@ public class SanityRunner {
                     outputDir,
                     jobName,
                     apiRespDir,
+                    historyDir,
+                    reportCache,
                     System.out::println);
 
             System.out.println("\nSummary:");
@@ -41,8 +86,18 @@ public class SanityRunner {
             System.out.println("  Passed: " + summary.totalPassed);
             System.out.println("  Failed: " + summary.totalFailed);
             System.out.println("  Total Time: " + String.format("%.3f", summary.totalTime) + "s");
+            if (summary.history != null) {
+                System.out.println("  Flaky Tests: " + summary.history.flaky.size());
+                System.out.println("  Duration Regressions: " + summary.history.regressions.size());
+            }
 
-            CopyFailedResponses.copy(Paths.get(apiRespDir), failedApiRespDir);
+            // Only this run's failed responses; the directory scan also takes *~FAILED.txt files left by earlier runs
+            if (fromManifest && summary.failedResponsesManifest != null) {
+                List<Path> failedResponses = FailedResponses.readManifest(summary.failedResponsesManifest);
+                CopyFailedResponses.copy(Paths.get(apiRespDir), failedResponses, failedApiRespDir, linkResponses);
+            } else {
+                CopyFailedResponses.copy(Paths.get(apiRespDir), failedApiRespDir, linkResponses);
+            }
             System.out.println("Copied Failed Responses!");
         } catch (Exception e) {
             exitCode = 1;
@@ -52,7 +107,7 @@ public class SanityRunner {
         if (args.length == argsForExtendedSanity) {
             Path originalPath = Paths.get(args[6]);
             String originalFileName = originalPath.getFileName().toString();
-            Path excelPath = Paths.get(outputDir, "Exceptions.xlsx");
+            Path exceptionsPath = Paths.get(outputDir, "Exceptions." + format);
             String[] flows = args[7].split("\\|");
             
             int project = -1;
@@ -69,12 +124,18 @@ public class SanityRunner {
             String env = args[10];
             String tester = args[11];
 
+            List<Path> logFilePaths = new ArrayList<>();
+            for (String flow : flows) {
+                logFilePaths.add(originalPath.resolveSibling(flow.toUpperCase() + originalFileName));
+            }
+
             try {
-                for (String flow : flows) {
-                    Path logFilePath = originalPath.resolveSibling(flow.toUpperCase() + originalFileName);
-                    LogsToExcel.log(logFilePath, excelPath, flow, project, dmp, env, tester);
+                IncrementalState state = incremental ? IncrementalState.load(exceptionsPath, project) : null;
+                try (ExceptionSink sink = exceptionSink(format, exceptionsPath, project, dmp, env, tester, state)) {
+                    ExceptionExtractor.extract(logFilePaths, Arrays.asList(flows), parallelFlows, cluster, state,
+                            sink);
                 }
-                System.out.println("Logs processed and saved to Excel!");
+                System.out.println("Logs processed and saved to " + exceptionsPath.getFileName() + "!");
             } catch (IOException e) {
                 exitCode = 1;
                 e.printStackTrace();
@@ -83,4 +144,16 @@ public class SanityRunner {
 
         System.exit(exitCode);
     }
+
+    private static ExceptionSink exceptionSink(String format, Path file, int project, String dmp, String env,
+            String tester, IncrementalState incremental) throws IOException {
+        switch (format) {
+            case "csv":
+                return new CsvExceptionSink(file, project, dmp, env, tester);
+            case "jsonl":
+                return new JsonLinesExceptionSink(file, project, dmp, env, tester);
+            default:
+                return new XlsxExceptionSink(file, project, dmp, env, tester, incremental);
+        }
+    }
 }
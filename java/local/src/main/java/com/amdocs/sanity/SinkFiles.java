@@ -0,0 +1,50 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/** The files of the CSV and JSON Lines sinks: rows go to a side file and replace the file's rows on close. */
+final class SinkFiles {
+
+    interface Keeper {
+        /** Copies to {@code out} the rows of the existing file that are not written again. */
+        void keep(Writer out) throws IOException;
+    }
+
+    private SinkFiles() {
+    }
+
+    /** Side file the rows of {@code file} are streamed to. */
+    static Path rows(Path file) {
+        return file.resolveSibling(file.getFileName() + ".rows");
+    }
+
+    /** Replaces {@code file} with {@code header}, the rows {@code keeper} keeps and then the new rows. */
+    static void replace(Path file, String header, Keeper keeper) throws IOException {
+        Path rows = rows(file);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp));
+                    Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+                out.write(header);
+                if (Files.exists(file)) {
+                    keeper.keep(out);
+                }
+                out.flush();
+                Files.copy(rows, stream);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(rows);
+            Files.deleteIfExists(temp);
+        }
+    }
+}
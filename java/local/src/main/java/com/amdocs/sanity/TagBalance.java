@@ -0,0 +1,63 @@
+package com.amdocs.sanity;
+
+/**
+ * Splits flow log lines into exception blocks delimited by '<' and '>': a block ends at the line that brings the
+ * running balance back to exactly zero.
+ */
+final class TagBalance {
+
+    private boolean inBlock;
+    private int balance;
+    private long blockStart = -1;
+    private long blockEnd = -1;
+
+    /** Feeds chars [from, to) of {@code text}, the line at [start, end), and returns whether it ends a block. */
+    boolean feed(CharSequence text, int from, int to, long start, long end) {
+        if (!inBlock) {
+            inBlock = true;
+            balance = 0;
+            blockStart = start;
+            blockEnd = -1;
+        }
+        balance += of(text, from, to);
+        if (balance == 0) {
+            inBlock = false;
+            blockEnd = end;
+            return true;
+        }
+        return false;
+    }
+
+    /** Whether a block was started and has not ended yet. */
+    boolean inBlock() {
+        return inBlock;
+    }
+
+    int balance() {
+        return balance;
+    }
+
+    /** Start of the first line of the current or last block. */
+    long blockStart() {
+        return blockStart;
+    }
+
+    /** End of the line that ended the last block, -1 while it has not ended. */
+    long blockEnd() {
+        return blockEnd;
+    }
+
+    /** Balance of chars [from, to) of {@code text}. */
+    static int of(CharSequence text, int from, int to) {
+        int open = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                open++;
+            } else if (c == '>') {
+                open--;
+            }
+        }
+        return open;
+    }
+}
@@ -0,0 +1,45 @@
+package com.amdocs.sanity;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/** Sizes the runner's thread pools and waits on their tasks. */
+final class Tasks {
+
+    /** Threads for file operations, which wait on the file system rather than on the CPU. */
+    static final int IO_THREADS = 8;
+
+    private Tasks() {
+    }
+
+    /** Threads for CPU-bound work on {@code count} inputs. */
+    static int cpuThreads(int count) {
+        return Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Result of {@code task}, whose IOException, RuntimeException or Error is rethrown as is; {@code what} says what the
+     * task was doing, as in "reading &lt;file&gt;".
+     */
+    static <T> T await(Future<T> task, String what) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while " + what, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed while " + what, cause);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.amdocs.sanity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.poi.ooxml.POIXMLTypeLoader;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.xmlbeans.XmlException;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTBookView;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedName;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheets;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
+
+/**
+ * Replaces or appends to sheets of an existing .xlsx at package level, copying the other parts without parsing them.
+ * Workbooks where that is not safe (sheet parts, sheet-scoped names) are left to the caller's in-memory path.
+ */
+final class WorkbookSplicer {
+
+    private static final byte[] SHEET_DATA_START = "<sheetData>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHEET_DATA_END = "</sheetData>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHEET_DATA_EMPTY = "<sheetData/>".getBytes(StandardCharsets.US_ASCII);
+
+    private WorkbookSplicer() {
+    }
+
+    /** Whether the named sheets of {@code file} can be replaced without loading the workbook. */
+    static boolean canSplice(File file, Collection<String> sheetNames) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            PackagePart workbookPart = workbookPart(pkg);
+            if (workbookPart == null || relatedPart(workbookPart, XSSFRelation.STYLES.getRelation()) == null) {
+                return false;
+            }
+            CTWorkbook workbook = parse(workbookPart).getWorkbook();
+            if (workbook.isSetDefinedNames()) {
+                for (CTDefinedName name : workbook.getDefinedNames().getDefinedNameArray()) {
+                    if (name.isSetLocalSheetId()) {
+                        return false;
+                    }
+                    for (String sheetName : sheetNames) {
+                        if (name.getStringValue().contains(sheetName)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            for (CTSheet sheet : workbook.getSheets().getSheetArray()) {
+                if (contains(sheetNames, sheet.getName())) {
+                    PackagePart sheetPart = workbookPart.getRelatedPart(workbookPart.getRelationship(sheet.getId()));
+                    if (sheetPart.hasRelationships()) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (OpenXML4JException | XmlException e) {
+            return false;
+        }
+    }
+
+    /** An empty workbook with the styles of {@code file}, so styles added to it extend the target's. */
+    static XSSFWorkbook styleTemplate(File file) throws IOException {
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.write(empty);
+        }
+
+        try (OPCPackage source = OPCPackage.open(file, PackageAccess.READ)) {
+            OPCPackage template = OPCPackage.open(new ByteArrayInputStream(empty.toByteArray()));
+            PackagePart styles = relatedPart(workbookPart(template), XSSFRelation.STYLES.getRelation());
+            try (InputStream in = relatedPart(workbookPart(source), XSSFRelation.STYLES.getRelation())
+                    .getInputStream();
+                    OutputStream out = styles.getOutputStream()) {
+                IOUtils.copy(in, out);
+            }
+            return new XSSFWorkbook(template);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Cannot read workbook " + file, e);
+        }
+    }
+
+    /**
+     * Moves every sheet of {@code generated} into {@code file}, replacing sheets of the same name, or appending to
+     * those named in {@code appendTo}. {@code file} is left untouched if this fails.
+     */
+    static void splice(File file, File generated, Collection<String> appendTo) throws IOException {
+        // A JVM-wide POI setting, so it is put back for the workbooks opened elsewhere
+        boolean tempFileParts = ZipPackage.useTempFilePackageParts();
+        ZipPackage.setUseTempFilePackageParts(true);
+        try {
+            spliceParts(file, generated, appendTo);
+        } finally {
+            ZipPackage.setUseTempFilePackageParts(tempFileParts);
+        }
+    }
+
+    private static void spliceParts(File file, File generated, Collection<String> appendTo) throws IOException {
+        OPCPackage target;
+        try {
+            target = OPCPackage.open(file, PackageAccess.READ_WRITE);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Cannot open workbook " + file, e);
+        }
+        try (OPCPackage source = OPCPackage.open(generated, PackageAccess.READ)) {
+            PackagePart targetWorkbookPart = workbookPart(target);
+            PackagePart sourceWorkbookPart = workbookPart(source);
+            WorkbookDocument targetDoc = parse(targetWorkbookPart);
+            CTWorkbook targetWorkbook = targetDoc.getWorkbook();
+            CTSheets targetSheets = targetWorkbook.getSheets();
+
+            boolean removed = false;
+            for (CTSheet sheet : parse(sourceWorkbookPart).getWorkbook().getSheets().getSheetArray()) {
+                PackagePart sourcePart = sourceWorkbookPart.getRelatedPart(
+                        sourceWorkbookPart.getRelationship(sheet.getId()));
+                if (contains(appendTo, sheet.getName())) {
+                    appendRows(target, targetWorkbookPart, targetSheets, sheet.getName(), sourcePart);
+                    continue;
+                }
+
+                removed |= removeSheet(target, targetWorkbookPart, targetSheets, sheet.getName());
+                PackagePartName partName = nextSheetPartName(target);
+                PackagePart part = target.createPart(partName, XSSFRelation.WORKSHEET.getContentType());
+                copy(sourcePart, part);
+                PackageRelationship relationship = targetWorkbookPart.addRelationship(partName,
+                        TargetMode.INTERNAL, XSSFRelation.WORKSHEET.getRelation());
+
+                long sheetId = 0;
+                for (CTSheet existing : targetSheets.getSheetArray()) {
+                    sheetId = Math.max(sheetId, existing.getSheetId());
+                }
+                CTSheet added = targetSheets.addNewSheet();
+                added.setName(sheet.getName());
+                added.setSheetId(sheetId + 1);
+                added.setId(relationship.getId());
+            }
+
+            copy(relatedPart(sourceWorkbookPart, XSSFRelation.STYLES.getRelation()),
+                    relatedPart(targetWorkbookPart, XSSFRelation.STYLES.getRelation()));
+
+            if (removed) {
+                // The calculation chain may point at cells of removed sheets; Excel rebuilds it when missing
+                PackageRelationshipCollection chains = targetWorkbookPart.getRelationshipsByType(
+                        XSSFRelation.CALC_CHAIN.getRelation());
+                for (PackageRelationship chain : chains) {
+                    target.removePart(targetWorkbookPart.getRelatedPart(chain));
+                    targetWorkbookPart.removeRelationship(chain.getId());
+                }
+                if (targetWorkbook.isSetBookViews()) {
+                    int last = targetSheets.sizeOfSheetArray() - 1;
+                    for (CTBookView view : targetWorkbook.getBookViews().getWorkbookViewArray()) {
+                        if (view.getActiveTab() > last) {
+                            view.setActiveTab(last);
+                        }
+                        if (view.getFirstSheet() > last) {
+                            view.setFirstSheet(last);
+                        }
+                    }
+                }
+            }
+
+            try (OutputStream out = targetWorkbookPart.getOutputStream()) {
+                targetDoc.save(out, POIXMLTypeLoader.DEFAULT_XML_OPTIONS);
+            }
+        } catch (IOException | RuntimeException e) {
+            target.revert();
+            throw e;
+        } catch (OpenXML4JException | XmlException e) {
+            target.revert();
+            throw new IOException("Cannot splice sheets into " + file, e);
+        }
+        target.close();
+    }
+
+    private static boolean removeSheet(OPCPackage pkg, PackagePart workbookPart, CTSheets sheets, String name)
+            throws InvalidFormatException {
+        for (int i = 0; i < sheets.sizeOfSheetArray(); i++) {
+            CTSheet sheet = sheets.getSheetArray(i);
+            if (sheet.getName().equalsIgnoreCase(name)) {
+                pkg.removePart(workbookPart.getRelatedPart(workbookPart.getRelationship(sheet.getId())));
+                workbookPart.removeRelationship(sheet.getId());
+                sheets.removeSheet(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendRows(OPCPackage pkg, PackagePart workbookPart, CTSheets sheets, String name,
+            PackagePart rowsPart) throws IOException, InvalidFormatException {
+        CTSheet sheet = null;
+        for (CTSheet candidate : sheets.getSheetArray()) {
+            if (candidate.getName().equalsIgnoreCase(name)) {
+                sheet = candidate;
+            }
+        }
+        if (sheet == null) {
+            throw new IOException("No sheet " + name + " to append to");
+        }
+
+        byte[] rows;
+        try (InputStream in = rowsPart.getInputStream()) {
+            rows = sheetData(IOUtils.toByteArray(in));
+        }
+
+        PackagePart oldPart = workbookPart.getRelatedPart(workbookPart.getRelationship(sheet.getId()));
+        PackagePartName partName = nextSheetPartName(pkg);
+        PackagePart part = pkg.createPart(partName, XSSFRelation.WORKSHEET.getContentType());
+        try (InputStream in = oldPart.getInputStream();
+                OutputStream out = part.getOutputStream()) {
+            // An empty sheet may have its sheet data written as a single empty element
+            copyReplacing(in, out, new byte[][] { SHEET_DATA_END, SHEET_DATA_EMPTY },
+                    new byte[][] { concat(rows, SHEET_DATA_END), concat(SHEET_DATA_START, rows, SHEET_DATA_END) });
+        }
+
+        pkg.removePart(oldPart);
+        workbookPart.removeRelationship(sheet.getId());
+        PackageRelationship relationship = workbookPart.addRelationship(partName, TargetMode.INTERNAL,
+                XSSFRelation.WORKSHEET.getRelation());
+        sheet.setId(relationship.getId());
+    }
+
+    /** The rows of a generated sheet: what lies between its sheetData tags. */
+    private static byte[] sheetData(byte[] xml) throws IOException {
+        int start = indexOf(xml, SHEET_DATA_START, 0);
+        if (start < 0) {
+            if (indexOf(xml, SHEET_DATA_EMPTY, 0) < 0) {
+                throw new IOException("Generated sheet has no sheet data");
+            }
+            return new byte[0];
+        }
+        start += SHEET_DATA_START.length;
+        int end = indexOf(xml, SHEET_DATA_END, start);
+        if (end < 0) {
+            throw new IOException("Generated sheet has no end of sheet data");
+        }
+        return Arrays.copyOfRange(xml, start, end);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Copies {@code in} to {@code out} with the first of the markers found replaced; each starts with a lone '<'. */
+    private static void copyReplacing(InputStream in, OutputStream out, byte[][] markers, byte[][] replacements)
+            throws IOException {
+        int longest = 0;
+        for (byte[] marker : markers) {
+            longest = Math.max(longest, marker.length);
+        }
+        byte[] held = new byte[longest];
+        byte[] buf = new byte[64 * 1024];
+        int matched = 0;
+        boolean replaced = false;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if (replaced) {
+                out.write(buf, 0, n);
+                continue;
+            }
+            // buf[from, i) is pending output; the bytes matched so far are held back
+            int from = 0;
+            for (int i = 0; i < n && !replaced; i++) {
+                if (matched > 0 && !extendsMarker(markers, held, matched, buf[i])) {
+                    out.write(held, 0, matched);
+                    matched = 0;
+                }
+                if (matched > 0 || buf[i] == '<') {
+                    if (matched == 0) {
+                        out.write(buf, from, i - from);
+                    }
+                    held[matched++] = buf[i];
+                    from = i + 1;
+                    for (int m = 0; m < markers.length && !replaced; m++) {
+                        if (matched == markers[m].length && startsWith(markers[m], held, matched)) {
+                            out.write(replacements[m]);
+                            replaced = true;
+                        }
+                    }
+                }
+            }
+            out.write(buf, from, n - from);
+        }
+        if (!replaced) {
+            throw new IOException("Sheet has no end of sheet data");
+        }
+    }
+
+    /** Whether {@code held[0, length)} followed by {@code b} starts one of the {@code markers}. */
+    private static boolean extendsMarker(byte[][] markers, byte[] held, int length, byte b) {
+        for (byte[] marker : markers) {
+            if (marker.length > length && marker[length] == b && startsWith(marker, held, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.write(part, 0, part.length);
+        }
+        return joined.toByteArray();
+    }
+
+    private static PackagePartName nextSheetPartName(OPCPackage pkg) throws InvalidFormatException {
+        for (int i = 1;; i++) {
+            PackagePartName name = PackagingURIHelper.createPartName("/xl/worksheets/sheet" + i + ".xml");
+            if (!pkg.containPart(name)) {
+                return name;
+            }
+        }
+    }
+
+    private static PackagePart workbookPart(OPCPackage pkg) throws InvalidFormatException {
+        PackageRelationshipCollection documents = pkg.getRelationshipsByType(
+                PackageRelationshipTypes.CORE_DOCUMENT);
+        return documents.size() == 0 ? null : pkg.getPart(documents.getRelationship(0));
+    }
+
+    private static PackagePart relatedPart(PackagePart part, String relationshipType)
+            throws InvalidFormatException {
+        PackageRelationshipCollection relationships = part.getRelationshipsByType(relationshipType);
+        return relationships.size() == 0 ? null : part.getRelatedPart(relationships.getRelationship(0));
+    }
+
+    private static WorkbookDocument parse(PackagePart workbookPart) throws IOException, XmlException {
+        try (InputStream in = workbookPart.getInputStream()) {
+            return WorkbookDocument.Factory.parse(in, POIXMLTypeLoader.DEFAULT_XML_OPTIONS);
+        }
+    }
+
+    private static void copy(PackagePart from, PackagePart to) throws IOException {
+        try (InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream()) {
+            IOUtils.copy(in, out);
+        }
+    }
+
+    private static boolean contains(Collection<String> sheetNames, String name) {
+        for (String sheetName : sheetNames) {
+            if (sheetName.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
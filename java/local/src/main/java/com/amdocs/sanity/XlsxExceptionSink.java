@@ -0,0 +1,57 @@
+package com.amdocs.sanity;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Writes each flow to its own sheet of Exceptions.xlsx, all at once on close. */
+final class XlsxExceptionSink implements ExceptionSink {
+
+    private final Path excelPath;
+    private final boolean isOE;
+    private final String dmp;
+    private final String env;
+    private final String tester;
+    private final IncrementalState incremental;
+    private final Map<String, ExceptionExtractor.SheetRows> sheets = new LinkedHashMap<>();
+
+    XlsxExceptionSink(Path excelPath, int project, String dmp, String env, String tester,
+            IncrementalState incremental) {
+        this.excelPath = excelPath;
+        this.incremental = incremental;
+        this.isOE = project == 1;
+        this.dmp = dmp;
+        this.env = env;
+        this.tester = tester;
+    }
+
+    @Override
+    public void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) {
+        if (rows.appendFrom > 0 && rows.exceptions.isEmpty()) {
+            // Nothing new: the sheet stays as it is
+            return;
+        }
+        String sheetName = flow.sheetName(isOE);
+        // A flow given twice ends up last, holding its last rows, as when each flow was saved in turn
+        sheets.remove(sheetName);
+        sheets.put(sheetName, rows);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Read before the workbook changes, or the recorded state would no longer match it
+        IncrementalState previous = incremental == null && IncrementalState.exists(excelPath)
+                ? IncrementalState.load(excelPath, isOE ? 1 : 2)
+                : null;
+        if (!sheets.isEmpty()) {
+            LogsToExcel.writeSheets(sheets, excelPath, dmp, env, tester);
+        }
+        if (incremental != null) {
+            incremental.save();
+        } else if (previous != null) {
+            previous.forget(sheets.keySet());
+            previous.save();
+        }
+    }
+}
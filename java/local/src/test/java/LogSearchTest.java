@@ -0,0 +1,392 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogSearchTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readerScanMatchesBaseline() throws IOException {
+        Path log = TestLogs.write(dir.resolve("rules.log"), 1, 20_000);
+        assertEquals(baseline(log), search(log));
+    }
+
+    @Test
+    void unbalancedAndTruncatedBlocksMatchBaseline() throws IOException {
+        Random r = new Random(11);
+        List<String> lines = new ArrayList<>();
+        for (String line : TestLogs.lines(11, 20_000)) {
+            lines.add(line);
+            if (line.contains("<Error>") && r.nextInt(3) == 0) {
+                // Closing brackets that take the balance below zero, before or after the block was opened
+                lines.add(r.nextBoolean() ? "  closed early >>> <y" : "  <<nested <z> text");
+                lines.add("  >>> and more text >");
+            }
+        }
+        List<String> truncated = new ArrayList<>(lines);
+        truncated.add("2024-01-02 00:00:00,000 ERROR <Error> Session Id=1000000000009 obj@1 | Pricing <detail");
+        truncated.add("java.lang.IllegalStateException: cut off");
+        truncated.add("  at com.x.Y(Y.java:1)");
+        truncated.add("    body <x> line 1");
+
+        Path file = TestLogs.write(dir.resolve("rules.log"), lines, "\n", false);
+        List<String> expected = baseline(file);
+        assertEquals(expected, search(file));
+        assertEquals(expected, search(file, "--mmap"));
+        assertEquals(expected, search(file, "--parallel=4"));
+
+        // The baseline fails on a block cut off by the end of the log; the scans all end it there
+        file = TestLogs.write(dir.resolve("rules.log"), truncated, "\n", false);
+        List<String> cutOff = search(file);
+        String last = String.join("\n", truncated.subList(lines.size(), truncated.size()));
+        assertTrue(cutOff.get(0).contains(last), "block at the end of the log");
+        assertEquals(cutOff, search(file, "--mmap"));
+        assertEquals(cutOff, search(file, "--parallel=4"));
+    }
+
+    @Test
+    void mappedScanMatchesBaseline() throws IOException {
+        for (int seed = 1; seed <= 3; seed++) {
+            Path log = TestLogs.write(dir.resolve("rules.log"), TestLogs.lines(seed, 20_000),
+                    seed == 2 ? "\r\n" : "\n", seed != 3);
+            assertEquals(baseline(log), search(log, "--mmap"), "seed " + seed);
+        }
+    }
+
+    @Test
+    void parallelScanMatchesSequentialScan() throws IOException {
+        // Large enough for several 8 MB chunks, so that blocks and windows cross chunk boundaries
+        Path log = TestLogs.write(dir.resolve("rules.log"), TestLogs.lines(4, 500_000), "\r\n", false);
+        List<String> sequential = baseline(log);
+        assertEquals(sequential, search(log, "--parallel=4"));
+        assertEquals(sequential, search(log, "--parallel=3"));
+        assertEquals(search(log, "--mmap", "--fingerprint"), search(log, "--parallel=4", "--fingerprint"));
+    }
+
+    @Test
+    void gzipLogsMatchPlainLogs() throws IOException {
+        Path log = TestLogs.write(dir.resolve("rules.log"), 5, 100_000);
+        List<String> plain = baseline(log);
+        byte[] bytes = Files.readAllBytes(log);
+        Path gz = dir.resolve("rules.log.gz");
+        for (int memberSize : new int[] { bytes.length, 64 * 1024 }) {
+            Files.write(gz, ParallelGunzipStreamTest.gzip(bytes, memberSize, Deflater.DEFAULT_COMPRESSION));
+            assertEquals(plain, search(gz), "members of " + memberSize);
+            assertEquals(plain, search(gz, "--parallel=4"), "members of " + memberSize);
+        }
+    }
+
+    @Test
+    void fingerprintDedupIgnoresIdsAndTimestamps() throws IOException {
+        Path log = TestLogs.write(dir.resolve("rules.log"), Arrays.asList(
+                "2024-01-01 10:00:00,000 ERROR <Error> Session Id=1000000000001 obj@1a2b3c | Pricing",
+                "java.lang.IllegalStateException: order 4711 not found at 2024-01-01 10:00:00,000",
+                "  at com.x.Y(Y.java:1)",
+                "2024-01-01 10:00:01,000 ERROR <Error> Session Id=1000000000002 obj@4d5e6f | Pricing",
+                "java.lang.IllegalStateException: order 4712 not found at 2024-01-01 10:00:01,500",
+                "  at com.x.Y(Y.java:1)",
+                "2024-01-01 10:00:02,000 ERROR <Error> Session Id=1000000000002 obj@4d5e6f | Pricing",
+                "java.lang.IllegalStateException: customer 12 not found at 2024-01-01 10:00:02,000",
+                "  at com.x.Y(Y.java:1)",
+                "2024-01-01 10:00:03,000 DEBUG noise",
+                "2024-01-01 10:00:04,000 DEBUG noise"), "\n", true);
+        // The blocks are the header lines alone; their timestamps tell them apart
+        String exact = search(log).get(0);
+        assertTrue(exact.contains("10:00:00,000 ERROR") && exact.contains("10:00:01,000 ERROR")
+                && exact.contains("10:00:02,000 ERROR"));
+        for (String mode : new String[] { "--fingerprint", "--fingerprint=verify" }) {
+            String fingerprinted = search(log, mode).get(0);
+            assertTrue(fingerprinted.contains("10:00:00,000 ERROR") && fingerprinted.contains("10:00:02,000 ERROR"),
+                    mode);
+            assertFalse(fingerprinted.contains("10:00:01,000 ERROR"), mode);
+        }
+    }
+
+    @Test
+    void followModeCatchesUpWithAGrowingLog() throws IOException {
+        Path log = TestLogs.write(dir.resolve("rules.log"), 8, 30_000);
+        byte[] bytes = Files.readAllBytes(log);
+        List<String> expected = baseline(log);
+
+        // Rounds end anywhere, inside lines and blocks as well
+        Random random = new Random(8);
+        for (int written = 0; written < bytes.length; ) {
+            written = Math.min(bytes.length, written + random.nextInt(bytes.length / 10));
+            Files.write(log, Arrays.copyOf(bytes, written));
+            LogSearch.main(new String[] { "--follow", log.toString() });
+        }
+        assertEquals(expected, outputs(log));
+    }
+
+    @Test
+    void indexLookupsReturnTheBlocksOfASessionOrError() throws IOException {
+        List<String> lines = TestLogs.lines(9, 30_000);
+        Path log = TestLogs.write(dir.resolve("rules.log"), lines, "\n", true);
+        String separator = System.lineSeparator() + System.lineSeparator();
+        Map<String, StringBuilder> bySession = new HashMap<>();
+        for (int i = 0; i < lines.size() - 2; i++) {
+            String line = lines.get(i);
+            if (line.contains("<Error>")) {
+                String session = line.replaceAll(".*Session Id=([0-9]*).*", "$1");
+                bySession.computeIfAbsent(session, s -> new StringBuilder()).append(block(lines, i))
+                        .append(separator);
+            }
+        }
+
+        assertTrue(console(() -> LogSearch.main(new String[] { "--index", log.toString() })).startsWith("Indexed"));
+        for (Map.Entry<String, StringBuilder> session : bySession.entrySet()) {
+            assertEquals(session.getValue().toString(),
+                    console(() -> LogSearch.main(new String[] { "--lookup-session=" + session.getKey(),
+                            log.toString() })), session.getKey());
+        }
+
+        // --stats lists each error with the fingerprint --lookup-error takes and how often it occurred
+        LogSearch.main(new String[] { "--fingerprint", "--stats", log.toString() });
+        List<String> stats = Files.readAllLines(dir.resolve("rules_error_stats.csv"));
+        for (String row : stats.subList(1, stats.size())) {
+            String[] columns = row.split(",");
+            String found = console(() -> LogSearch.main(new String[] { "--lookup-error=" + columns[0],
+                    log.toString() }));
+            assertEquals(Integer.parseInt(columns[1]), found.split("<Error>", -1).length - 1, row);
+        }
+
+        Files.write(log, Arrays.asList("2024-01-02 00:00:00,000 DEBUG appended"), StandardOpenOption.APPEND);
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true));
+        try {
+            console(() -> LogSearch.main(new String[] { "--lookup-session=1", log.toString() }));
+        } finally {
+            System.setErr(err);
+        }
+        assertTrue(errors.toString().contains("out of date"), errors.toString());
+    }
+
+    @Test
+    void queryFiltersMatchTheBaselineOnAnEquivalentLog() throws IOException {
+        List<String> lines = TestLogs.lines(10, 40_000);
+        Path log = TestLogs.write(dir.resolve("rules.log"), lines, "\n", true);
+        Set<String> sessions = new HashSet<>();
+        for (String line : lines) {
+            if (line.contains("<Error>") && sessions.size() < 8) {
+                sessions.add(session(line));
+            }
+        }
+        String from = "2024-01-08 00:00:00";
+        String to = "2024-01-20 12:00:00";
+
+        // Markers of what the query leaves out are disguised, so that the baseline passes over the same lines
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.contains("<Error>") || line.contains("Starting Rule Debug Messages")) {
+                if (!sessions.contains(session(line)) || !inWindow(line, from, to)) {
+                    line = line.replace("<Error>", "<Errar>").replace("Starting Rule", "Startling Rule");
+                }
+            } else if (line.contains("Rule Ended [ Unsuccessfully ]")) {
+                if (!sessions.contains(session(line)) || !inWindow(lines.get(i - 2), from, to)) {
+                    line = line.replace("Unsuccessfully", "Unsuccessfullx");
+                }
+            }
+            kept.add(line);
+        }
+        List<String> expected = baseline(TestLogs.write(dir.resolve("kept.log"), kept, "\n", true));
+
+        String[] query = { "--sessions=" + String.join(",", sessions), "--from=" + from, "--to=" + to };
+        for (String mode : new String[] { null, "--mmap", "--parallel=4" }) {
+            List<String> args = new ArrayList<>(Arrays.asList(query));
+            if (mode != null) {
+                args.add(mode);
+            }
+            args.add(log.toString());
+            LogSearch.main(args.toArray(new String[0]));
+            assertEquals(expected, outputs(log, "rules_query"), String.valueOf(mode));
+        }
+    }
+
+    @Test
+    void statsCountEveryErrorPerIdentifierAndSession() throws IOException {
+        List<String> lines = TestLogs.lines(11, 30_000);
+        Path log = TestLogs.write(dir.resolve("rules.log"), lines, "\n", true);
+        Map<String, Integer> errors = new HashMap<>();
+        Map<String, Integer> sessionErrors = new HashMap<>();
+        Map<String, Set<String>> sessionUnique = new HashMap<>();
+        for (int i = 0; i < lines.size() - 2; i++) {
+            if (lines.get(i).contains("<Error>")) {
+                String identifier = identifier(lines.get(i), lines.get(i + 1), lines.get(i + 2));
+                String session = session(lines.get(i));
+                errors.merge(identifier, 1, Integer::sum);
+                sessionErrors.merge(session, 1, Integer::sum);
+                sessionUnique.computeIfAbsent(session, s -> new HashSet<>()).add(identifier);
+            }
+        }
+
+        List<String> errorStats = null;
+        List<String> sessionStats = null;
+        for (String mode : new String[] { null, "--mmap", "--parallel=4" }) {
+            search(log, mode == null ? new String[] { "--stats" } : new String[] { "--stats", mode });
+            List<String> modeErrorStats = Files.readAllLines(dir.resolve("rules_error_stats.csv"));
+            List<String> modeSessionStats = Files.readAllLines(dir.resolve("rules_session_stats.csv"));
+            if (errorStats == null) {
+                errorStats = modeErrorStats;
+                sessionStats = modeSessionStats;
+            }
+            assertEquals(errorStats, modeErrorStats, String.valueOf(mode));
+            assertEquals(sessionStats, modeSessionStats, String.valueOf(mode));
+        }
+
+        Map<String, Integer> counted = new HashMap<>();
+        for (String row : errorStats.subList(1, errorStats.size())) {
+            String[] columns = row.split(",", 8);
+            counted.put(columns[7], Integer.parseInt(columns[1]));
+        }
+        assertEquals(errors, counted);
+        Map<String, Integer> countedErrors = new HashMap<>();
+        Map<String, Integer> countedUnique = new HashMap<>();
+        for (String row : sessionStats.subList(1, sessionStats.size())) {
+            String[] columns = row.split(",");
+            countedErrors.put(columns[0], Integer.parseInt(columns[1]));
+            countedUnique.put(columns[0], Integer.parseInt(columns[2]));
+        }
+        assertEquals(sessionErrors, countedErrors);
+        Map<String, Integer> unique = new HashMap<>();
+        sessionUnique.forEach((session, identifiers) -> unique.put(session, identifiers.size()));
+        assertEquals(unique, countedUnique);
+    }
+
+    /** The error identifier the baseline dedups on. */
+    private static String identifier(String line1, String line2, String line3) {
+        if (line2.contains("RULE ERROR: The rule with GROUP ID =") || line2.contains("Exception")) {
+            return line2;
+        }
+        if (line3.contains("Exception")) {
+            return line2.trim().length() > 0 ? line2.split("line")[0].trim() : line3;
+        }
+        return line1.substring(line1.lastIndexOf('|') + 1).trim();
+    }
+
+    private static String session(String line) {
+        return line.replaceAll(".*Session Id=([0-9]*).*", "$1");
+    }
+
+    private static boolean inWindow(String line, String from, String to) {
+        String time = line.substring(0, 19);
+        return time.compareTo(from) >= 0 && time.compareTo(to) < 0;
+    }
+
+    @Test
+    void batchMergesLogsLikeOneConcatenatedLog() throws IOException {
+        Path batch = Files.createDirectory(dir.resolve("batch"));
+        List<String> all = new ArrayList<>();
+        List<List<String>> perLog = new ArrayList<>();
+        for (String name : new String[] { "a", "b", "c" }) {
+            // Trailing noise keeps the last block of a log from running into the next one once they are concatenated
+            List<String> lines = new ArrayList<>(TestLogs.lines(name.charAt(0), 20_000));
+            for (int i = 0; i < 3; i++) {
+                lines.add("2024-01-01 00:00:00,000 DEBUG end of " + name);
+            }
+            perLog.add(baseline(TestLogs.write(batch.resolve(name + ".log"), lines, "\n", true)));
+            all.addAll(lines);
+        }
+        List<String> expected = baseline(TestLogs.write(dir.resolve("all.log"), all, "\n", true));
+
+        for (String mode : new String[] { "--batch=2", "--batch=3 --mmap", "--batch --fingerprint=verify" }) {
+            List<String> args = new ArrayList<>(Arrays.asList(mode.split(" ")));
+            args.add(batch.resolve("?.log").toString());
+            String printed = console(() -> LogSearch.main(args.toArray(new String[0])));
+            assertTrue(printed.contains("Searched 3 of 3 logs"), printed);
+            if (!mode.contains("fingerprint")) {
+                assertEquals(perLog.get(0), outputs(batch.resolve("a.log")), mode);
+                assertEquals(perLog.get(1), outputs(batch.resolve("b.log")), mode);
+                assertEquals(perLog.get(2), outputs(batch.resolve("c.log")), mode);
+                assertEquals(expected.get(0), new String(Files.readAllBytes(batch.resolve("batch_uniq_all.log")),
+                        StandardCharsets.US_ASCII), mode);
+            }
+        }
+    }
+
+    /** What {@code action} prints to System.out. */
+    static String console(Runnable action) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+        return new String(printed.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /** The error block headed by {@code lines.get(header)} as the baseline takes it, without a final terminator. */
+    static String block(List<String> lines, int header) {
+        StringBuilder block = new StringBuilder(lines.get(header));
+        int open = balance(lines.get(header));
+        for (int i = header + 1; open > 0; i++) {
+            block.append('\n').append(lines.get(i));
+            open += balance(lines.get(i));
+        }
+        return block.toString();
+    }
+
+    private static int balance(String line) {
+        int open = 0;
+        for (char c : line.toCharArray()) {
+            open += c == '<' ? 1 : c == '>' ? -1 : 0;
+        }
+        return open;
+    }
+
+    /** _uniq_all.log and _uniq_sesh.log of the baseline LogSearch. */
+    static List<String> baseline(Path log) throws IOException {
+        BaselineLogSearch.main(new String[] { log.toString() });
+        List<String> outputs = outputs(log);
+        assertTrue(outputs.get(0).contains("<Error>"), "baseline found no errors in " + log);
+        return outputs;
+    }
+
+    /** _uniq_all.log and _uniq_sesh.log of LogSearch with {@code options}. */
+    static List<String> search(Path log, String... options) throws IOException {
+        String[] args = Arrays.copyOf(options, options.length + 1);
+        args[options.length] = log.toString();
+        LogSearch.main(args);
+        return outputs(log);
+    }
+
+    static List<String> outputs(Path log) throws IOException {
+        String name = log.getFileName().toString();
+        return outputs(log, name.substring(0, name.indexOf('.')));
+    }
+
+    static List<String> outputs(Path log, String prefix) throws IOException {
+        List<String> outputs = new ArrayList<>();
+        for (String suffix : new String[] { "_uniq_all.log", "_uniq_sesh.log" }) {
+            Path output = log.resolveSibling(prefix + suffix);
+            outputs.add(new String(Files.readAllBytes(output), StandardCharsets.US_ASCII));
+            Files.delete(output);
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputStageTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesEachLineToItsTargets() throws IOException {
+        File overall = dir.resolve("all.log").toFile();
+        File session = dir.resolve("sesh.log").toFile();
+        ByteArrayOutputStream expectedOverall = new ByteArrayOutputStream();
+        ByteArrayOutputStream expectedSession = new ByteArrayOutputStream();
+        byte[] newLine = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        try (LogSearch.OutputStage out = new LogSearch.OutputStage(overall, session, false)) {
+            // Enough lines to cycle every pooled batch several times
+            for (int i = 0; i < 200_000; i++) {
+                int targets = 1 + i % 3;
+                String line = "line " + i + " \u00e9 for " + targets;
+                out.writeLine(targets, line);
+                if ((targets & LogSearch.OutputStage.OVERALL) != 0) {
+                    expectedOverall.write(line.getBytes(StandardCharsets.UTF_8));
+                    expectedOverall.write(newLine);
+                }
+                if ((targets & LogSearch.OutputStage.SESSION) != 0) {
+                    expectedSession.write(line.getBytes(StandardCharsets.UTF_8));
+                    expectedSession.write(newLine);
+                }
+            }
+        }
+        assertArrayEquals(expectedOverall.toByteArray(), Files.readAllBytes(overall.toPath()));
+        assertArrayEquals(expectedSession.toByteArray(), Files.readAllBytes(session.toPath()));
+    }
+
+    @Test
+    void closeStopsTheWriterWhenWritingFails() throws IOException, InterruptedException {
+        File full = new File("/dev/full");
+        assumeTrue(full.exists(), "needs /dev/full");
+        LogSearch.OutputStage out = new LogSearch.OutputStage(full, null, false);
+        out.writeLine(LogSearch.OutputStage.OVERALL, "no space for this");
+        assertThrows(IOException.class, out::close);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("LogSearch-writer")) {
+                thread.join(1000);
+                assertFalse(thread.isAlive(), "writer thread left running");
+            }
+        }
+    }
+
+    @Test
+    void closeFailsWhenTheWriterThreadWasInterrupted() throws IOException, InterruptedException {
+        LogSearch.OutputStage out = new LogSearch.OutputStage(dir.resolve("all.log").toFile(), null, false);
+        out.writeLine(LogSearch.OutputStage.OVERALL, "never handed to the writer");
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("LogSearch-writer")) {
+                thread.interrupt();
+                thread.join(1000);
+            }
+        }
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(InterruptedIOException.class, out::close));
+    }
+}
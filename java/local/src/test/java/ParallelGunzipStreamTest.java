@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelGunzipStreamTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void inflatesMembersLikeGzipInputStream() throws IOException {
+        byte[] data = text(3_000_000);
+        for (int memberSize : new int[] { data.length, 1_000_000, 64 * 1024, 5000 }) {
+            Path file = write(gzip(data, memberSize, Deflater.BEST_SPEED));
+            for (int threads : new int[] { 1, 2, 4 }) {
+                assertArrayEquals(data, readParallel(file, threads), memberSize + " / " + threads);
+            }
+        }
+    }
+
+    @Test
+    void skipsGzipHeadersInsideMemberData() throws IOException {
+        // Stored members whose data holds whole gzip files: each is a candidate that is inflated and then dropped
+        Random random = new Random(7);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < 12; i++) {
+            byte[] noise = new byte[random.nextInt(200_000)];
+            random.nextBytes(noise);
+            data.write(noise);
+            data.write(gzip(text(random.nextInt(2_500_000)), Integer.MAX_VALUE, Deflater.BEST_SPEED));
+        }
+        byte[] expected = data.toByteArray();
+        Path file = write(gzip(expected, 1_500_000, Deflater.NO_COMPRESSION));
+        assertArrayEquals(expected, gunzip(Files.readAllBytes(file)));
+        for (int threads : new int[] { 2, 4, 8 }) {
+            assertArrayEquals(expected, readParallel(file, threads), threads + " threads");
+        }
+    }
+
+    @Test
+    void rejectsFilesThatAreNotGzip() throws IOException {
+        Path file = write(text(100_000));
+        assertThrows(ZipException.class, () -> readParallel(file, 4));
+        assertThrows(ZipException.class, () -> readParallel(write(new byte[0]), 4));
+    }
+
+    @Test
+    void failsOnCorruptOrTruncatedMembers() throws IOException {
+        byte[] gz = gzip(text(2_000_000), 200_000, Deflater.BEST_SPEED);
+        byte[] corrupt = gz.clone();
+        for (int i = gz.length / 2; i < gz.length / 2 + 64; i++) {
+            corrupt[i] ^= 0x5a;
+        }
+        Path corruptFile = write(corrupt);
+        Path truncatedFile = write(Arrays.copyOf(gz, gz.length - 100));
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            assertThrows(IOException.class, () -> readParallel(corruptFile, 4));
+            assertThrows(IOException.class, () -> readParallel(truncatedFile, 4));
+        });
+    }
+
+    @Test
+    void endsAtAnUnreadableMemberAfterTheLastOne() throws IOException {
+        byte[] data = text(1_000_000);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        gz.write(gzip(data, 300_000, Deflater.BEST_SPEED));
+        // A valid header followed by a deflate block of the reserved type
+        gz.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0 });
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0xff);
+        gz.write(garbage);
+        Path file = write(gz.toByteArray());
+        for (int threads : new int[] { 1, 4 }) {
+            assertArrayEquals(data, readParallel(file, threads), threads + " threads");
+        }
+    }
+
+    private Path write(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile(dir, "log", ".gz");
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static byte[] readParallel(Path file, int threads) throws IOException {
+        try (InputStream in = new LogSearch.ParallelGunzipStream(file.toString(), threads)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] gunzip(byte[] gz) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** {@code data} as consecutive gzip members of {@code memberSize} bytes each. */
+    static byte[] gzip(byte[] data, int memberSize, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int from = 0; from < data.length || from == 0; from += memberSize) {
+            GZIPOutputStream member = new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            };
+            member.write(data, from, Math.min(memberSize, data.length - from));
+            member.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] text(int length) {
+        byte[] text = new byte[length];
+        Random random = new Random(length);
+        for (int i = 0; i < length; i++) {
+            text[i] = (byte) (random.nextInt(20) == 0 ? '\n' : 'a' + random.nextInt(6));
+        }
+        return text;
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Random rule-engine logs with session starts, error blocks, failed-rule dumps and noise. */
+final class TestLogs {
+
+    private static final String[] GROUPS = { "G0", "G1", "G2", "G3", "G4", "G5", "G6", "G7" };
+    private static final String[] EXCEPTIONS = { "java.lang.NullPointerException",
+            "com.amdocs.rule.RuleEvalException", "java.sql.SQLException", "java.lang.IllegalStateException" };
+    private static final String[] COMPONENTS = { "RuleEngine", "Pricing", "OrderMgr", "Catalog" };
+
+    private TestLogs() {
+    }
+
+    static List<String> lines(long seed, int count) {
+        Random r = new Random(seed);
+        String[] sessions = new String[40];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = String.valueOf(1_000_000_000_000L + (r.nextLong() & 0xffffffffffL));
+        }
+        List<String> lines = new ArrayList<>();
+        while (lines.size() < count) {
+            double kind = r.nextDouble();
+            String session = sessions[r.nextInt(sessions.length)];
+            if (kind < 0.05) {
+                lines.add(timestamp(r) + " INFO [exec-" + r.nextInt(9) + "] Session Id=" + session
+                        + " Starting Rule Debug Messages");
+            } else if (kind < 0.25) {
+                boolean opened = r.nextDouble() < 0.4;
+                lines.add(timestamp(r) + " ERROR <Error> Session Id=" + session + " obj@"
+                        + Integer.toHexString(r.nextInt()) + " | " + COMPONENTS[r.nextInt(COMPONENTS.length)]
+                        + (opened ? " <detail" : ""));
+                double body = r.nextDouble();
+                if (body < 0.35) {
+                    lines.add("RULE ERROR: The rule with GROUP ID = " + GROUPS[r.nextInt(GROUPS.length)]
+                            + " failed id=" + r.nextInt(5));
+                    lines.add("  cause text");
+                } else if (body < 0.6) {
+                    lines.add(EXCEPTIONS[r.nextInt(EXCEPTIONS.length)] + ": bad value " + r.nextInt(4));
+                    lines.add("  at com.x.Y(Y.java:" + (1 + r.nextInt(4)) + ")");
+                } else if (body < 0.75) {
+                    lines.add(r.nextBoolean() ? "  evaluating rule at line " + r.nextInt(3) + " col 3" : "");
+                    lines.add(EXCEPTIONS[r.nextInt(EXCEPTIONS.length)] + ": nested");
+                } else {
+                    lines.add("plain message " + r.nextInt(4));
+                    lines.add("more text");
+                }
+                if (opened) {
+                    for (int i = r.nextInt(5); i > 0; i--) {
+                        lines.add("    body <x> line " + r.nextInt(10));
+                    }
+                    lines.add("    end of detail>");
+                }
+            } else if (kind < 0.30) {
+                lines.add(timestamp(r) + " DEBUG rule step");
+                lines.add(timestamp(r) + " DEBUG rule step 2");
+                lines.add(timestamp(r) + " INFO Rule Ended [ Unsuccessfully ] Session Id=" + session);
+                for (int i = r.nextInt(4); i > 0; i--) {
+                    lines.add("   trace " + r.nextInt(100));
+                }
+                lines.add("");
+            } else if (kind < 0.35) {
+                lines.add("");
+            } else {
+                lines.add(timestamp(r) + " DEBUG noise " + r.nextInt(1_000_000) + " <tag>");
+            }
+        }
+        return lines;
+    }
+
+    static Path write(Path file, List<String> lines, String separator, boolean trailingSeparator)
+            throws IOException {
+        String text = String.join(separator, lines) + (trailingSeparator ? separator : "");
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    static Path write(Path file, long seed, int count) throws IOException {
+        return write(file, lines(seed, count), "\n", true);
+    }
+
+    private static String timestamp(Random r) {
+        return String.format("2024-01-%02d %02d:%02d:%02d,%03d", 1 + r.nextInt(28), r.nextInt(24), r.nextInt(60),
+                r.nextInt(60), r.nextInt(1000));
+    }
+}
@@ -0,0 +1,83 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DurationStatsTest {
+
+    private static final double[] PERCENTS = { 0, 1, 10, 25, 50, 75, 90, 95, 99, 99.9, 100 };
+
+    @Test
+    void percentilesAreOffByAtMostOne128thOfTheirValue() {
+        double worst = 0;
+        for (int seed = 1; seed <= 40; seed++) {
+            Random random = new Random(seed);
+            int count = 1 + random.nextInt(5_000);
+            long[] millis = new long[count];
+            DurationStats.Histogram histogram = new DurationStats.Histogram();
+            for (int i = 0; i < count; i++) {
+                // Exact small durations, spread out large ones and durations just past a power of two
+                switch (seed % 3) {
+                    case 0:
+                        millis[i] = random.nextInt(300);
+                        break;
+                    case 1:
+                        millis[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+                        break;
+                    default:
+                        millis[i] = (1L << (7 + random.nextInt(20))) + random.nextInt(3);
+                        break;
+                }
+                histogram.add(millis[i]);
+            }
+            Arrays.sort(millis);
+            for (double percent : PERCENTS) {
+                long expected = millis[(int) Math.max(1, Math.ceil(percent / 100 * count)) - 1];
+                long actual = histogram.percentile(percent);
+                double error = Math.abs(actual - expected);
+                assertTrue(error <= expected / 128.0,
+                        "seed " + seed + ", p" + percent + ": " + actual + " for " + expected);
+                if (expected < 128) {
+                    assertEquals(expected, actual);
+                }
+                worst = Math.max(worst, error / Math.max(1, expected));
+            }
+            assertEquals(count, histogram.count());
+            assertEquals(millis[count - 1], histogram.max());
+        }
+        // The bound is reached, not just respected
+        assertTrue(worst > 1.0 / 160, "worst " + worst);
+    }
+
+    @Test
+    void emptyHistogramsHaveNoPercentiles() {
+        assertEquals(0, new DurationStats.Histogram().percentile(50));
+    }
+
+    @Test
+    void slowestAreKeptInReportOrderForTies() {
+        DurationStats durations = new DurationStats();
+        for (int i = 0; i < 30; i++) {
+            durations.add(i % 2 == 0 ? "Even" : "Odd", "Case " + i, i % 7);
+        }
+        durations.add("Odd", "NaN", Double.NaN);
+        durations.add("Odd", "Infinite", Double.POSITIVE_INFINITY);
+
+        List<String> slowest = new ArrayList<>();
+        for (DurationStats.Slow slow : durations.slowest()) {
+            slowest.add(slow.testCase + "=" + slow.time);
+        }
+        assertEquals(Arrays.asList("Case 6=6.0", "Case 13=6.0", "Case 20=6.0", "Case 27=6.0", "Case 5=5.0",
+                "Case 12=5.0", "Case 19=5.0", "Case 26=5.0", "Case 4=4.0", "Case 11=4.0"), slowest);
+        assertEquals(30, durations.overall.count());
+        assertEquals(Arrays.asList("Even", "Odd"), new ArrayList<>(durations.suites.keySet()));
+        assertEquals(15, durations.suites.get("Odd").count());
+    }
+}
@@ -0,0 +1,222 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExceptionExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void blocksMatchTheBaseline() throws IOException {
+        int blocks = 0;
+        for (int seed = 1; seed <= 30; seed++) {
+            List<String> lines = flowLog(seed, 2_000);
+            if (seed % 3 == 0) {
+                // A line that ends the search, as a session id of the wrong length does
+                lines.add(lines.size() / 2, "abcdefghijklmn");
+            }
+            Path log = write(lines, seed % 2 == 0 ? "\r\n" : "\n", seed % 5 != 0);
+            List<String> expected = baseline(log);
+            assertEquals(expected, extract(log), "seed " + seed);
+            blocks += expected.size();
+        }
+        assertTrue(blocks > 1_000, blocks + " blocks");
+    }
+
+    @Test
+    void blockEndsAreWhereTheNextSearchResumes() {
+        String[] lines = { "<a", "b <c>", "d>", "<e>", ">f", "g<" };
+        TagBalance blocks = new TagBalance();
+        List<String> ends = new ArrayList<>();
+        long offset = 0;
+        for (String line : lines) {
+            if (blocks.feed(line, 0, line.length(), offset, offset + line.length() + 1)) {
+                ends.add(blocks.blockStart() + "-" + blocks.blockEnd());
+            }
+            offset += line.length() + 1;
+        }
+        assertEquals(Arrays.asList("0-12", "12-16", "16-22"), ends);
+        assertFalse(blocks.inBlock());
+        // Below zero is not the end of an exception block
+        assertFalse(blocks.feed(">h", 0, 2, 22, 25));
+        assertEquals(-1, blocks.balance());
+    }
+
+    @Test
+    void incrementalReadsAppendWhatARebuildReads() throws IOException {
+        Path workbook = Files.write(dir.resolve("Exceptions.xlsx"), new byte[] { 1 });
+        Path log = dir.resolve("NC_rules.log");
+        for (int seed = 1; seed <= 10; seed++) {
+            Files.deleteIfExists(IncrementalState.sidecar(workbook));
+            String separator = seed % 2 == 0 ? "\r\n" : "\n";
+            String whole = String.join(separator, flowLog(seed, 3_000)) + separator;
+            byte[] text = whole.getBytes(StandardCharsets.US_ASCII);
+            // The log grows by arbitrary amounts, so reads stop inside blocks, inside lines and between \r and \n
+            Random random = new Random(seed);
+            List<String> sheet = new ArrayList<>();
+            for (int length = 0; length < text.length; ) {
+                length = Math.min(text.length, length + 1 + random.nextInt(text.length / 8));
+                Files.write(log, Arrays.copyOf(text, length));
+                IncrementalState state = IncrementalState.load(workbook, 1);
+                ExceptionExtractor.SheetRows rows = extract(log, state);
+                state.save();
+                if (rows.appendFrom == 0) {
+                    sheet.clear();
+                } else {
+                    assertEquals(sheet.size() + 1, rows.appendFrom, "seed " + seed);
+                }
+                sheet.addAll(rows.exceptions);
+            }
+            assertEquals(extract(log), sheet, "seed " + seed);
+            assertEquals(baseline(log), sheet, "seed " + seed);
+        }
+    }
+
+    /** Exceptions the way extract() reads them from {@code log}, sequentially and not clustered. */
+    static List<String> extract(Path log) throws IOException {
+        List<String> exceptions = new ArrayList<>();
+        ExceptionExtractor.extract(Collections.singletonList(log), Collections.singletonList("NC"), false, false,
+                null, new ExceptionSink() {
+                    @Override
+                    public void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) {
+                        exceptions.addAll(rows.exceptions);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+        return exceptions;
+    }
+
+    /** The rows of {@code log} read with {@code state}. */
+    static ExceptionExtractor.SheetRows extract(Path log, IncrementalState state) throws IOException {
+        List<ExceptionExtractor.SheetRows> sheets = new ArrayList<>();
+        ExceptionExtractor.extract(Collections.singletonList(log), Collections.singletonList("NC"), false, false,
+                state, new ExceptionSink() {
+                    @Override
+                    public void write(ExceptionExtractor.Flow flow, ExceptionExtractor.SheetRows rows) {
+                        sheets.add(rows);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+        return sheets.get(0);
+    }
+
+    /** Random flow log lines with nested, unbalanced and unterminated blocks. */
+    static List<String> flowLog(long seed, int count) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>();
+        while (lines.size() < count) {
+            double kind = random.nextDouble();
+            if (kind < 0.5) {
+                lines.add("<Exception at 2024-01-01 10:00:00 id=" + random.nextInt(100));
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    lines.add(random.nextBoolean() ? "  <cause <nested> text>" : "  at com.x.Y(Y.java:1)");
+                }
+                if (random.nextBoolean()) {
+                    lines.add("");
+                }
+                lines.add("end of exception>");
+            } else if (kind < 0.6) {
+                lines.add("<balanced line here>");
+            } else if (kind < 0.62) {
+                lines.add("stray close > here");
+            } else if (kind < 0.64) {
+                lines.add(">> two closes here");
+            } else if (kind < 0.66) {
+                lines.add("<< two opens here");
+            } else if (kind < 0.68) {
+                lines.add("stray open < here");
+            } else if (kind < 0.9) {
+                lines.add(random.nextBoolean() ? "" : "   ");
+            } else {
+                lines.add(random.nextBoolean() ? "1000000000001" : "some plain text here");
+            }
+        }
+        return lines;
+    }
+
+    Path write(List<String> lines, String separator, boolean trailingSeparator) throws IOException {
+        Path log = Files.createTempFile(dir, "flow", ".log");
+        String text = String.join(separator, lines) + (trailingSeparator ? separator : "");
+        Files.write(log, text.getBytes(StandardCharsets.US_ASCII));
+        return log;
+    }
+
+    /** LogsToExcel.findErrors before the exception blocks were read with TagBalance. */
+    static List<String> baseline(Path log) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(log.toFile()))) {
+            List<String> exceptions = new ArrayList<>();
+
+            int openTags = 0;
+            String line;
+            StringBuilder exception = new StringBuilder();
+            while ((line = br.readLine()) != null) {
+                int len = line.trim().length();
+                if (len == 0 && openTags == 0) {
+                    continue;
+                }
+
+                // Check if session-id encountered at EOF
+                if (len >= 13 && len <= 15) {
+                    boolean isDigitOnly = true;
+                    for (char c : line.trim().toCharArray()) {
+                        if (!Character.isDigit(c)) {
+                            isDigitOnly = false;
+                            break;
+                        }
+                    }
+
+                    if (!isDigitOnly) {
+                        break;
+                    }
+                }
+
+                openTags += calculateOpenTags(line);
+                if (openTags == 0) {
+                    exceptions.add(exception.toString().trim());
+                    exception.setLength(0);
+                } else {
+                    exception.append(line);
+                }
+            }
+
+            return exceptions;
+        }
+    }
+
+    private static int calculateOpenTags(String line) {
+        int open = 0;
+        for (char c : line.toCharArray()) {
+            if (c == '<') {
+                open++;
+            } else if (c == '>') {
+                open--;
+            }
+        }
+
+        return open;
+    }
+}
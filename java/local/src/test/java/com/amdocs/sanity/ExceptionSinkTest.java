@@ -0,0 +1,154 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExceptionSinkTest {
+
+    private static final List<String> NC = Arrays.asList("  <plain exception>  ", "<with, comma>",
+            "<with \"quotes\" and \\ backslash>", "<line\r\nbreak\tand tab>", "<control \u0001 and \u00e9\u4e2d>");
+    private static final List<String> CR = Arrays.asList("<clustered a>", "<clustered b>");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void csvHoldsEveryRowOfEveryFlow() throws IOException {
+        Path file = dir.resolve("Exceptions.csv");
+        write(new CsvExceptionSink(file, 1, "DMP 1", "ENV,2", "Tester \"3\""));
+
+        List<List<String>> records = Csv.read(file);
+        assertEquals(Arrays.asList("S.No.", "Exception", "DMP", "ENV", "Tester", "Flow", "Project", "Occurrences"),
+                records.get(0));
+        assertEquals(1 + NC.size() + CR.size(), records.size());
+        for (int i = 0; i < NC.size(); i++) {
+            assertEquals(Arrays.asList(Integer.toString(i + 1), NC.get(i).trim(), "DMP 1", "ENV,2", "Tester \"3\"",
+                    "NC", "OE", "1"), records.get(1 + i));
+        }
+        assertEquals(Arrays.asList("2", "<clustered b>", "DMP 1", "ENV,2", "Tester \"3\"", "CR", "OE", "3"),
+                records.get(records.size() - 1));
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(text.endsWith("\r\n2,<clustered b>,DMP 1,\"ENV,2\",\"Tester \"\"3\"\"\",CR,OE,3\r\n"));
+    }
+
+    @Test
+    void jsonLinesHoldOneObjectPerRow() throws IOException {
+        Path file = dir.resolve("Exceptions.jsonl");
+        write(new JsonLinesExceptionSink(file, 2, "DMP 1", "ENV,2", "Tester \"3\""));
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(NC.size() + CR.size(), lines.size());
+        String fields = ",\"dmp\":\"DMP 1\",\"env\":\"ENV,2\",\"tester\":\"Tester \\\"3\\\"\"";
+        assertEquals("{\"sNo\":1,\"exception\":\"<plain exception>\"" + fields
+                + ",\"flow\":\"NC\",\"project\":\"CO\",\"occurrences\":1}", lines.get(0));
+        assertEquals("{\"sNo\":3,\"exception\":\"<with \\\"quotes\\\" and \\\\ backslash>\"" + fields
+                + ",\"flow\":\"NC\",\"project\":\"CO\",\"occurrences\":1}", lines.get(2));
+        assertEquals("{\"sNo\":4,\"exception\":\"<line\\r\\nbreak\\tand tab>\"" + fields
+                + ",\"flow\":\"NC\",\"project\":\"CO\",\"occurrences\":1}", lines.get(3));
+        assertEquals("{\"sNo\":5,\"exception\":\"<control \\u0001 and \u00e9\u4e2d>\"" + fields
+                + ",\"flow\":\"NC\",\"project\":\"CO\",\"occurrences\":1}", lines.get(4));
+        assertEquals("{\"sNo\":2,\"exception\":\"<clustered b>\"" + fields
+                + ",\"flow\":\"CR\",\"project\":\"CO\",\"occurrences\":3}", lines.get(6));
+    }
+
+    @Test
+    void xlsxHoldsOneSheetPerFlow() throws IOException {
+        Path file = dir.resolve("Exceptions.xlsx");
+        write(new XlsxExceptionSink(file, 1, "DMP 1", "ENV,2", "Tester \"3\"", null));
+
+        try (Workbook workbook = WorkbookFactory.create(file.toFile(), null, true)) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals(Arrays.asList("S.No.", "Exception", "DMP", "ENV", "Tester"),
+                    cells(workbook.getSheet("NC - OE").getRow(0)));
+            Sheet nc = workbook.getSheet("NC - OE");
+            assertEquals(NC.size(), nc.getLastRowNum());
+            // Excel holds no control characters, so the last exception is not compared
+            for (int i = 0; i < NC.size() - 1; i++) {
+                assertEquals(Arrays.asList(Integer.toString(i + 1), NC.get(i).trim(), "DMP 1", "ENV,2", "Tester \"3\""),
+                        cells(nc.getRow(1 + i)));
+            }
+            Sheet cr = workbook.getSheet("CR - OE");
+            assertEquals("Occurrences", cells(cr.getRow(0)).get(5));
+            assertEquals(Arrays.asList("2", "<clustered b>", "DMP 1", "ENV,2", "Tester \"3\"", "3"),
+                    cells(cr.getRow(2)));
+        }
+    }
+
+    @Test
+    void rerunOfOneFlowKeepsTheRowsOfTheOthers() throws IOException {
+        Path csv = dir.resolve("Exceptions.csv");
+        Path json = dir.resolve("Exceptions.jsonl");
+        write(new CsvExceptionSink(csv, 1, "DMP 1", "ENV,2", "Tester \"3\""));
+        write(new JsonLinesExceptionSink(json, 1, "DMP 1", "ENV,2", "Tester \"3\""));
+        rerunNc(new CsvExceptionSink(csv, 1, "DMP 1", "ENV,2", "T"));
+        rerunNc(new JsonLinesExceptionSink(json, 1, "DMP 1", "ENV,2", "T"));
+
+        List<List<String>> records = Csv.read(csv);
+        assertEquals(1 + CR.size() + 1, records.size());
+        assertEquals(Arrays.asList("1", "<clustered a>", "DMP 1", "ENV,2", "Tester \"3\"", "CR", "OE", "1"),
+                records.get(1));
+        assertEquals(Arrays.asList("2", "<clustered b>", "DMP 1", "ENV,2", "Tester \"3\"", "CR", "OE", "3"),
+                records.get(2));
+        assertEquals(Arrays.asList("1", "<rerun>", "DMP 1", "ENV,2", "T", "NC", "OE", "1"), records.get(3));
+
+        List<String> lines = Files.readAllLines(json, StandardCharsets.UTF_8);
+        assertEquals(CR.size() + 1, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"sNo\":1,\"exception\":\"<clustered a>\""));
+        assertTrue(lines.get(1).startsWith("{\"sNo\":2,\"exception\":\"<clustered b>\""));
+        assertEquals("{\"sNo\":1,\"exception\":\"<rerun>\",\"dmp\":\"DMP 1\",\"env\":\"ENV,2\",\"tester\":\"T\""
+                + ",\"flow\":\"NC\",\"project\":\"OE\",\"occurrences\":1}", lines.get(2));
+        assertEquals(Arrays.asList("Exceptions.csv", "Exceptions.jsonl"), listDir());
+    }
+
+    private static void rerunNc(ExceptionSink sink) throws IOException {
+        try (ExceptionSink open = sink) {
+            open.write(ExceptionExtractor.Flow.NC, new ExceptionExtractor.SheetRows(Arrays.asList("<rerun>"), null));
+        }
+    }
+
+    private List<String> listDir() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void write(ExceptionSink sink) throws IOException {
+        try (ExceptionSink open = sink) {
+            open.write(ExceptionExtractor.Flow.NC, new ExceptionExtractor.SheetRows(NC, null));
+            open.write(ExceptionExtractor.Flow.CR, new ExceptionExtractor.SheetRows(CR, new int[] { 1, 3 }));
+        }
+    }
+
+    private static List<String> cells(Row row) {
+        DataFormatter formatter = new DataFormatter();
+        List<String> cells = new ArrayList<>();
+        for (Cell cell : row) {
+            cells.add(formatter.formatCellValue(cell));
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,49 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class Fnv1aTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesTheReferenceValues() throws IOException {
+        assertEquals(0xcbf29ce484222325L, hash(""));
+        assertEquals(0xaf63dc4c8601ec8cL, hash("a"));
+        assertEquals(0x85944171f73967e8L, hash("foobar"));
+
+        byte[] foobar = "foobar".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x85944171f73967e8L, Fnv1a.add(Fnv1a.OFFSET_BASIS, ByteBuffer.wrap(foobar), 0, 6));
+        long hash = Fnv1a.OFFSET_BASIS;
+        for (char c : "foobar".toCharArray()) {
+            hash = Fnv1a.add(hash, c);
+        }
+        assertEquals(0x85944171f73967e8L, hash);
+
+        Path file = Files.write(dir.resolve("foobar"), foobar);
+        assertEquals(0x85944171f73967e8L, Fnv1a.hash(file));
+        assertEquals(hash("foo"), Fnv1a.head(file, 3));
+    }
+
+    @Test
+    void headOfAShorterFileIsZero() throws IOException {
+        Path file = Files.write(dir.resolve("short"), new byte[] { 'a', 'b' });
+        assertEquals(0, Fnv1a.head(file, 3));
+        assertEquals(Fnv1a.OFFSET_BASIS, Fnv1a.head(file, 0));
+    }
+
+    private static long hash(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return Fnv1a.add(Fnv1a.OFFSET_BASIS, bytes, 0, bytes.length);
+    }
+}
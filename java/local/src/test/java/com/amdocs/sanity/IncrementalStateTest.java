@@ -0,0 +1,108 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalStateTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void incrementalRunsWriteTheSheetARebuildWrites() throws IOException {
+        Path log = dir.resolve("NC_rules.log");
+        byte[] text = (String.join("\n", ExceptionExtractorTest.flowLog(3, 1_500)) + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        Path incremental = dir.resolve("Exceptions.xlsx");
+        Random random = new Random(3);
+        for (int length = 0; length < text.length; ) {
+            length = Math.min(text.length, length + 1 + random.nextInt(text.length / 5));
+            Files.write(log, Arrays.copyOf(text, length));
+            IncrementalState state = IncrementalState.load(incremental, 1);
+            run(log, incremental, state);
+        }
+
+        Path rebuilt = dir.resolve("Rebuilt.xlsx");
+        run(log, rebuilt, null);
+        List<String> expected = cells(rebuilt, "NC - OE");
+        assertTrue(expected.size() > 100);
+        assertEquals(expected, cells(incremental, "NC - OE"));
+    }
+
+    @Test
+    void continuesOnlyTheLogItWasBuiltFrom() throws IOException {
+        Path workbook = Files.write(dir.resolve("Exceptions.xlsx"), new byte[] { 1 });
+        Path log = Files.write(dir.resolve("NC_rules.log"), "<a>\n<b>\n".getBytes(StandardCharsets.US_ASCII));
+        IncrementalState state = IncrementalState.load(workbook, 1);
+        state.sheet(ExceptionExtractor.Flow.NC).update(log, false, 8, 2);
+        state.save();
+
+        IncrementalState.Sheet sheet = IncrementalState.load(workbook, 1).sheet(ExceptionExtractor.Flow.NC);
+        assertTrue(sheet.continues(log));
+        assertEquals(8, sheet.offset());
+        assertEquals(3, sheet.nextSerial());
+
+        Files.write(log, "<c>\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        assertTrue(sheet.continues(log));
+        Files.write(log, "<x>\n<b>\n<c>\n".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(sheet.continues(log));
+        Files.write(log, "<a>\n".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(sheet.continues(log));
+        Path other = Files.write(dir.resolve("CR_rules.log"), "<a>\n<b>\n".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(sheet.continues(other));
+    }
+
+    @Test
+    void stateIsDroppedOnceTheWorkbookWasSavedByAnythingElse() throws IOException {
+        Path workbook = Files.write(dir.resolve("Exceptions.xlsx"), new byte[] { 1 });
+        Path log = Files.write(dir.resolve("NC_rules.log"), "<a>\n".getBytes(StandardCharsets.US_ASCII));
+        IncrementalState state = IncrementalState.load(workbook, 1);
+        state.sheet(ExceptionExtractor.Flow.NC).update(log, false, 4, 1);
+        state.save();
+
+        Files.setLastModifiedTime(workbook, FileTime.fromMillis(Files.getLastModifiedTime(workbook).toMillis() + 1000));
+        assertFalse(IncrementalState.load(workbook, 1).sheet(ExceptionExtractor.Flow.NC).continues(log));
+    }
+
+    private static void run(Path log, Path workbook, IncrementalState state) throws IOException {
+        try (ExceptionSink sink = new XlsxExceptionSink(workbook, 1, "dmp", "env", "tester", state)) {
+            ExceptionExtractor.extract(Collections.singletonList(log), Collections.singletonList("NC"), false, false,
+                    state, sink);
+        }
+    }
+
+    /** Every cell of the sheet, row by row. */
+    private static List<String> cells(Path file, String sheetName) throws IOException {
+        List<String> cells = new ArrayList<>();
+        try (FileInputStream in = new FileInputStream(file.toFile());
+                Workbook workbook = new XSSFWorkbook(in)) {
+            for (Row row : workbook.getSheet(sheetName)) {
+                for (Cell cell : row) {
+                    cells.add(row.getRowNum() + ":" + cell.getColumnIndex() + " " + cell);
+                }
+            }
+        }
+        return cells;
+    }
+}
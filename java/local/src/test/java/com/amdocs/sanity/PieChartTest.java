@@ -0,0 +1,85 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PieChartTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void chartIsAValidPng() throws IOException {
+        Path file = dir.resolve("piechart.png");
+        PieChart.writePng(75, 25, file);
+        ByteBuffer png = ByteBuffer.wrap(Files.readAllBytes(file));
+
+        byte[] signature = new byte[8];
+        png.get(signature);
+        assertArrayEquals(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' }, signature);
+        List<String> chunks = new ArrayList<>();
+        while (png.hasRemaining()) {
+            byte[] data = new byte[png.getInt()];
+            byte[] type = new byte[4];
+            png.get(type);
+            png.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(data);
+            String name = new String(type, StandardCharsets.US_ASCII);
+            assertEquals((int) crc.getValue(), png.getInt(), name);
+            chunks.add(name);
+            if (name.equals("IHDR")) {
+                assertArrayEquals(new byte[] { 0, 0, 0, (byte) 220, 0, 0, 0, (byte) 220, 8, 6, 0, 0, 0 }, data);
+            }
+        }
+        assertEquals(Arrays.asList("IHDR", "IDAT", "IEND"), chunks);
+    }
+
+    @Test
+    void slicesGoClockwiseFromTwelvePassedFirst() throws IOException {
+        Path file = dir.resolve("piechart.png");
+        PieChart.writePng(75, 25, file);
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertEquals(220, image.getWidth());
+        assertEquals(220, image.getHeight());
+
+        // Near the rim, away from the labels
+        assertEquals(0xFF008000, image.getRGB(200, 110));
+        assertEquals(0xFF008000, image.getRGB(110, 200));
+        assertEquals(0xFFFF0000, image.getRGB(46, 46));
+        assertEquals(0, image.getRGB(0, 0) >>> 24);
+        assertEquals(0, image.getRGB(219, 219) >>> 24);
+    }
+
+    @Test
+    void emptyAndOneSidedRunsAreDrawn() throws IOException {
+        for (int[] counts : new int[][] { { 0, 0 }, { 10, 0 }, { 0, 10 } }) {
+            Path file = dir.resolve("piechart-" + counts[0] + "-" + counts[1] + ".png");
+            PieChart.writePng(counts[0], counts[1], file);
+            BufferedImage image = ImageIO.read(file.toFile());
+            assertEquals(220, image.getWidth());
+            int expected = counts[0] == 0 && counts[1] > 0 ? 0xFFFF0000 : 0xFF008000;
+            if (counts[0] + counts[1] > 0) {
+                assertEquals(expected, image.getRGB(200, 110), Arrays.toString(counts));
+                assertEquals(expected, image.getRGB(20, 110), Arrays.toString(counts));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReadyAPIReportGeneratorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void logsEachFileInFileOrder() throws IOException {
+        Path reports = Files.createDirectory(dir.resolve("reports"));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = report(reports, "TEST-" + (char) ('a' + i) + ".xml", "Suite" + i, i % 3 == 0 ? 1 : 0, 200);
+            expected.add("Parsing: " + file);
+            if (i == 7 || i == 13) {
+                Files.write(file, "<testsuite name=\"broken\">".getBytes(StandardCharsets.UTF_8));
+                expected.add("Failed to parse " + file);
+            }
+        }
+
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        assertThrows(IOException.class, () -> ReadyAPIReportGenerator.generateReport(reports.toString(),
+                dir.toString(), "job", null, null, null, log::add));
+        List<String> parsing = new ArrayList<>();
+        for (String message : log) {
+            if (message.startsWith("Parsing: ")) {
+                parsing.add(message);
+            } else if (message.startsWith("Failed to parse ")) {
+                parsing.add(message.substring(0, message.indexOf(".xml") + 4));
+            }
+        }
+        assertEquals(expected, parsing);
+    }
+
+    /** A JUnit report of one suite with {@code cases} test cases, the first {@code failed} of them failed. */
+    static Path report(Path dir, String name, String suite, int failed, int cases) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<testsuite name=\"project.").append(suite).append("\" time=\"").append(cases).append(".5\">\n");
+        for (int i = 0; i < cases; i++) {
+            xml.append("  <testcase name=\"Case ").append(i).append("\" time=\"").append(1 + i % 7).append(".25\"");
+            if (i < failed) {
+                xml.append(">\n    <failure message=\"failed\">Response: &lt;b&gt;Step ").append(i)
+                        .append("&lt;/b&gt; Failed: assertion</failure>\n  </testcase>\n");
+            } else {
+                xml.append("/>\n");
+            }
+        }
+        xml.append("</testsuite>\n");
+        return Files.write(dir.resolve(name), xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,106 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReportCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void cachedResultsAreTheParsedOnes() throws IOException {
+        Path cacheFile = dir.resolve("reports.cache");
+        List<File> reports = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            reports.add(ReadyAPIReportGeneratorTest.report(dir, "TEST-" + i + ".xml", "Suite" + i, i % 4, 50 + i)
+                    .toFile());
+        }
+
+        AtomicInteger parsed = new AtomicInteger();
+        ReportCache.Parser parser = xmlFile -> {
+            parsed.incrementAndGet();
+            return ReadyAPIReportGenerator.parseJUnitXml(xmlFile);
+        };
+        ReportCache first = ReportCache.load(cacheFile);
+        for (File report : reports) {
+            ReadyAPIReportGenerator.TestResults results = first.get(report, parser);
+            assertEquals(Fnv1a.hash(report.toPath()), results.contentHash, report.getName());
+        }
+        first.save();
+        assertEquals(reports.size(), parsed.get());
+
+        ReportCache second = ReportCache.load(cacheFile);
+        for (File report : reports) {
+            ReadyAPIReportGenerator.TestResults fresh = ReadyAPIReportGenerator.parseJUnitXml(report);
+            ReadyAPIReportGenerator.TestResults cached = second.get(report, parser);
+            assertEquals(describe(fresh), describe(cached), report.getName());
+        }
+        assertEquals(reports.size(), parsed.get());
+        assertEquals(reports.size(), second.hits());
+    }
+
+    @Test
+    void modifiedReportsAreParsedOnlyWhenTheirContentChanged() throws IOException {
+        Path cacheFile = dir.resolve("reports.cache");
+        Path report = ReadyAPIReportGeneratorTest.report(dir, "TEST-a.xml", "Suite", 1, 10);
+        AtomicInteger parsed = new AtomicInteger();
+        ReportCache.Parser parser = xmlFile -> {
+            parsed.incrementAndGet();
+            return ReadyAPIReportGenerator.parseJUnitXml(xmlFile);
+        };
+        ReportCache cache = ReportCache.load(cacheFile);
+        cache.get(report.toFile(), parser);
+        cache.save();
+
+        // Rewritten with the same content
+        Files.setLastModifiedTime(report, FileTime.fromMillis(Files.getLastModifiedTime(report).toMillis() + 5_000));
+        cache = ReportCache.load(cacheFile);
+        cache.get(report.toFile(), parser);
+        cache.save();
+        assertEquals(1, parsed.get());
+        assertEquals(1, cache.hits());
+
+        // Same size, another failed case
+        String xml = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+        byte[] changed = xml.replace("Case 0\"", "Case X\"").getBytes(StandardCharsets.UTF_8);
+        Files.write(report, changed);
+        Files.setLastModifiedTime(report, FileTime.fromMillis(Files.getLastModifiedTime(report).toMillis() + 5_000));
+        cache = ReportCache.load(cacheFile);
+        ReadyAPIReportGenerator.TestResults results = cache.get(report.toFile(), parser);
+        assertEquals(2, parsed.get());
+        assertEquals(0, cache.hits());
+        assertEquals("Case X", results.testSuites.get(0).testCases.get(0).name);
+        assertEquals(Fnv1a.hash(report), results.contentHash);
+    }
+
+    static String describe(ReadyAPIReportGenerator.TestResults results) {
+        StringBuilder text = new StringBuilder();
+        text.append(results.totalTests).append(' ').append(results.totalPassed).append(' ')
+                .append(results.totalFailed).append(' ').append(results.totalTime).append(' ')
+                .append(Long.toHexString(results.contentHash)).append('\n');
+        for (ReadyAPIReportGenerator.TestSuite suite : results.testSuites) {
+            text.append(suite.name).append(' ').append(suite.time).append(' ').append(suite.status).append('\n');
+            for (ReadyAPIReportGenerator.TestCase testCase : suite.testCases) {
+                text.append("  ").append(testCase.name).append(' ').append(testCase.status).append(' ')
+                        .append(testCase.time).append(' ').append(testCase.failedStep).append('\n');
+            }
+        }
+        for (String[] step : results.failedSteps) {
+            text.append(String.join(" / ", step)).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RunHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void runsAreReadBackAsTheyWereAdded() throws IOException {
+        try (RunHistory history = RunHistory.open(dir, "job")) {
+            for (int i = 1; i <= 5; i++) {
+                history.append(run(history, i, i, i));
+            }
+        }
+        try (RunHistory history = RunHistory.open(dir, "job")) {
+            List<RunHistory.Run> runs = history.lastRuns(3);
+            assertEquals("3 4 5", times(runs));
+            RunHistory.Run run = runs.get(0);
+            assertEquals(3, run.identity);
+            assertEquals(3, run.size());
+            assertEquals("Suite", history.name(run.suites[0]));
+            assertEquals("Case 2", history.name(run.testCases[2]));
+            assertArrayEquals(new boolean[] { true, false, false }, run.failed);
+            assertArrayEquals(new int[] { 3000, 3001, 3002 }, run.millis);
+        }
+    }
+
+    @Test
+    void aRunAddedAgainReplacesTheEarlierOne() throws IOException {
+        try (RunHistory history = RunHistory.open(dir, "job")) {
+            history.append(run(history, 1, 11, 2));
+            history.append(run(history, 2, 12, 2));
+            history.append(run(history, 3, 13, 2));
+            // The latest run regenerated, then an earlier one
+            history.append(run(history, 4, 13, 4));
+            assertEquals("1 2 4", times(history.lastRuns(10)));
+            history.append(run(history, 5, 11, 3));
+            assertEquals("2 4 5", times(history.lastRuns(10)));
+            // Runs of unknown identity are always added
+            history.append(run(history, 6, 0, 1));
+            history.append(run(history, 7, 0, 1));
+        }
+        // Replaced runs are superseded by entries appended after them, not rewritten
+        Path index = dir.resolve("job-" + Integer.toHexString("job".hashCode()) + ".index");
+        assertEquals(8 + 7 * 32, Files.size(index));
+        try (RunHistory history = RunHistory.open(dir, "job")) {
+            history.append(run(history, 8, 12, 5));
+            List<RunHistory.Run> runs = history.lastRuns(10);
+            assertEquals("4 5 6 7 8", times(runs));
+            assertEquals(5, runs.get(4).size());
+            assertEquals("Case 4", history.name(runs.get(4).testCases[4]));
+            assertArrayEquals(new int[] { 8000, 8001, 8002, 8003, 8004 }, runs.get(4).millis);
+            assertArrayEquals(new int[] { 5000, 5001, 5002 }, runs.get(1).millis);
+        }
+    }
+
+    @Test
+    void regeneratingAReportDoesNotAddARun() throws IOException {
+        Path reports = Files.createDirectory(dir.resolve("reports"));
+        Path history = dir.resolve("history");
+        ReadyAPIReportGeneratorTest.report(reports, "TEST-a.xml", "A", 1, 20);
+        ReadyAPIReportGeneratorTest.report(reports, "TEST-b.xml", "B", 0, 30);
+        assertEquals(1, generate(reports, history).runs);
+        assertEquals(1, generate(reports, history).runs);
+
+        ReadyAPIReportGeneratorTest.report(reports, "TEST-b.xml", "B", 2, 30);
+        assertEquals(2, generate(reports, history).runs);
+        assertEquals(2, generate(reports, history).runs);
+    }
+
+    private HistoryAnalysis generate(Path reports, Path history) throws IOException {
+        return ReadyAPIReportGenerator.generateReport(reports.toString(), dir.toString(), "job", null,
+                history.toString(), null, null).history;
+    }
+
+    /** A run of {@code size} test cases of one suite, the first one failed, taking time * 1000 + i ms. */
+    private static RunHistory.Run run(RunHistory history, long time, long identity, int size) {
+        int[] suites = new int[size];
+        int[] testCases = new int[size];
+        boolean[] failed = new boolean[size];
+        int[] millis = new int[size];
+        for (int i = 0; i < size; i++) {
+            suites[i] = history.id("Suite");
+            testCases[i] = history.id("Case " + i);
+            failed[i] = i == 0;
+            millis[i] = (int) time * 1000 + i;
+        }
+        return new RunHistory.Run(time, identity, suites, testCases, failed, millis);
+    }
+
+    private static String times(List<RunHistory.Run> runs) {
+        List<String> times = new ArrayList<>();
+        for (RunHistory.Run run : runs) {
+            times.add(Long.toString(run.time));
+        }
+        return String.join(" ", times);
+    }
+}
@@ -0,0 +1,128 @@
+package com.amdocs.sanity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WorkbookSplicerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendsRowsAfterTheExistingOnes() throws IOException {
+        File file = workbook("NC - OE", "first", "second");
+        splice(file, generated(file, "NC - OE", 3, "third", "fourth"), "NC - OE");
+        assertEquals(Arrays.asList("first", "second", "third", "fourth"), values(file, "NC - OE"));
+        assertEquals(Collections.singletonList("kept"), values(file, "Other"));
+    }
+
+    @Test
+    void appendsRowsToASheetWithoutRows() throws IOException {
+        File file = workbook("NC - OE");
+        assertTrue(part(file, "xl/worksheets/sheet2.xml").contains("<sheetData/>"));
+        splice(file, generated(file, "NC - OE", 1, "first", "second"), "NC - OE");
+        assertEquals(Arrays.asList("first", "second"), values(file, "NC - OE"));
+        assertEquals(Collections.singletonList("kept"), values(file, "Other"));
+
+        // Appending nothing to a sheet without rows leaves it without rows
+        File empty = workbook("NC - OE");
+        splice(empty, generated(empty, "NC - OE", 1), "NC - OE");
+        assertEquals(Collections.emptyList(), values(empty, "NC - OE"));
+    }
+
+    @Test
+    void replacedSheetsMoveToTheEnd() throws IOException {
+        File file = workbook("NC - OE", "old");
+        splice(file, generated(file, "NC - OE", 1, "new"));
+        try (Workbook workbook = open(file)) {
+            assertEquals("Other", workbook.getSheetName(1));
+            assertEquals("NC - OE", workbook.getSheetName(2));
+        }
+        assertEquals(Collections.singletonList("new"), values(file, "NC - OE"));
+        assertEquals(Collections.singletonList("kept"), values(file, "Other"));
+    }
+
+    /** A workbook with a first sheet, {@code name} holding {@code rows} in column A and a sheet after it. */
+    private File workbook(String name, String... rows) throws IOException {
+        File file = dir.resolve("target.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.createSheet("First").createRow(0).createCell(0).setCellValue("first sheet");
+            Sheet sheet = workbook.createSheet(name);
+            for (int i = 0; i < rows.length; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(rows[i]);
+            }
+            workbook.createSheet("Other").createRow(0).createCell(0).setCellValue("kept");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+        return file;
+    }
+
+    /** Sheet {@code name} holding {@code rows} from row {@code firstRow} on, generated as LogsToExcel does. */
+    private File generated(File target, String name, int firstRow, String... rows) throws IOException {
+        File file = dir.resolve("generated.xlsx").toFile();
+        SXSSFWorkbook workbook = new SXSSFWorkbook(WorkbookSplicer.styleTemplate(target), 100);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet(name);
+            for (int i = 0; i < rows.length; i++) {
+                sheet.createRow(firstRow - 1 + i).createCell(0).setCellValue(rows[i]);
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+        return file;
+    }
+
+    private static void splice(File file, File generated, String... appendTo) throws IOException {
+        assertTrue(WorkbookSplicer.canSplice(file, Collections.singleton("NC - OE")));
+        WorkbookSplicer.splice(file, generated, Arrays.asList(appendTo));
+    }
+
+    private static List<String> values(File file, String sheetName) throws IOException {
+        List<String> values = new ArrayList<>();
+        try (Workbook workbook = open(file)) {
+            for (Row row : workbook.getSheet(sheetName)) {
+                values.add(row.getCell(0).getStringCellValue());
+            }
+        }
+        return values;
+    }
+
+    private static Workbook open(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return new XSSFWorkbook(in);
+        }
+    }
+
+    private static String part(File file, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(file);
+                InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,41 +1,340 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 public class LogSearch {
 
+    private static final byte[] STARTING = ascii("Starting Rule Debug Messages");
+    private static final byte[] SESSION_ID = ascii("Session Id=");
+    private static final byte[] ERROR_TAG = ascii("<Error>");
+    private static final byte[] RULE_ENDED = ascii("Rule Ended [ Unsuccessfully ]");
+    private static final byte[] RULE_ERROR = ascii("RULE ERROR: The rule with GROUP ID =");
+    private static final byte[] EXCEPTION = ascii("Exception");
+    private static final byte[] LINE = ascii("line");
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java LogSearch <input_log_file>");
+        Options options = Options.parse(args);
+        if (options == null) {
+            System.out.println("Usage: java LogSearch [--mmap] [--parallel[=<threads>] | --follow[=<poll_seconds>]]"
+                    + " [--fingerprint[=verify]] [--stats] <input_log_file[.gz]>");
+            System.out.println("       java LogSearch --batch[=<threads>] [--mmap] [--fingerprint[=verify]] [--stats]"
+                    + " <log_file_or_glob | @list_file>...");
+            System.out.println("       java LogSearch --index | --lookup-session=<id> | --lookup-error=<fingerprint>"
+                    + " <input_log_file>");
+            System.out.println("Query: --sessions=<id,...> --groups=<group_id,...> --exceptions=<class,...>"
+                    + " --components=<name,...> --from=<yyyy-MM-dd[ HH:mm:ss]> --to=<yyyy-MM-dd[ HH:mm:ss]>");
+            return;
+        }
+
+        if (options.batch) {
+            try {
+                BatchSearch.run(options);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
             return;
         }
 
-        String fileName = args[0].substring(0, args[0].lastIndexOf("."));
+        String inputFile = options.inputFile;
+        boolean compressed = inputFile.endsWith(".gz");
+        // A query writes its own outputs next to the full ones; the index options take none
+        String fileName = outputName(inputFile, options);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(args[0]), 32 * 1024);
-                BufferedWriter uniqueOverall = new BufferedWriter(new FileWriter(fileName + "_uniq_all.log"));
-                BufferedWriter uniqueInSession = new BufferedWriter(new FileWriter(fileName + "_uniq_sesh.log"));
-                        ) {
-            findAndLogErrors(br, uniqueOverall, uniqueInSession);
+        if (compressed && (options.mapped || options.follow)) {
+            System.out.println("--mmap and --follow need an uncompressed log");
+            return;
+        }
+
+        if (options.buildIndex || options.lookupSession != null || options.lookupError != null) {
+            if (compressed) {
+                System.out.println("The error index needs an uncompressed log");
+                return;
+            }
+            File indexFile = new File(fileName + "_errors.idx");
+            try {
+                if (options.buildIndex) {
+                    System.out.println("Indexed " + ErrorIndex.build(inputFile, indexFile) + " error blocks in "
+                            + indexFile);
+                } else {
+                    BufferedOutputStream out = new BufferedOutputStream(System.out);
+                    long found = options.lookupSession != null
+                            ? ErrorIndex.lookup(inputFile, indexFile, true,
+                                    FingerprintDedup.sessionKey(options.lookupSession), out)
+                            : ErrorIndex.lookup(inputFile, indexFile, false,
+                                    Long.parseUnsignedLong(options.lookupError, 16), out);
+                    out.flush();
+                    if (found == 0) {
+                        System.out.println("No error blocks found");
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (options.follow) {
+            try {
+                follow(options, fileName);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        try {
+            search(options, inputFile, fileName, null);
         } catch (Exception e) {
             e.printStackTrace();
             return;
         }
     }
 
-    private static void findAndLogErrors(BufferedReader br, BufferedWriter uniqueOverall,
-            BufferedWriter uniqueInSession) throws IOException {
+    /** Output file name prefix for a log: its path without the extension (and .gz), marked for queries. */
+    private static String outputName(String inputFile, Options options) {
+        String logName = inputFile.endsWith(".gz") ? inputFile.substring(0, inputFile.length() - 3) : inputFile;
+        int dot = logName.lastIndexOf('.');
+        String fileName = dot > Math.max(logName.lastIndexOf('/'), logName.lastIndexOf('\\'))
+                ? logName.substring(0, dot) : logName;
+        return options.filter != null ? fileName + "_query" : fileName;
+    }
+
+    /** One complete scan of a log. If {@code blocks} is given, the blocks written to _uniq_all.log are noted in it. */
+    private static void search(Options options, String inputFile, String fileName, ErrorBlocks blocks)
+            throws Exception {
+        boolean compressed = inputFile.endsWith(".gz");
+        boolean mapped = !compressed && (options.mapped || options.threads > 0);
+        Dedup dedup = options.newDedup();
+        Statistics stats = options.stats ? new Statistics(dedup) : null;
+
+        try (BufferedReader br = mapped ? null : openReader(inputFile, compressed, options.threads);
+                MappedLog log = mapped ? new MappedLog(inputFile) : null;
+                OutputStage out = new OutputStage(new File(fileName + "_uniq_all.log"),
+                        new File(fileName + "_uniq_sesh.log"), false);
+                        ) {
+            out.record(blocks);
+            if (mapped && options.threads > 0) {
+                new ParallelSearch(log, options.threads, out, dedup, options.filter, stats).run();
+            } else if (mapped) {
+                findAndLogErrors(log, out, dedup, options.filter, stats);
+            } else {
+                findAndLogErrors(br, out, dedup, options.filter, stats);
+            }
+            if (stats != null) {
+                stats.write(fileName);
+            }
+        }
+    }
+
+    /*
+     * Several logs in one JVM, each searched as on its own. Their blocks are then merged in input order into
+     * batch_uniq_all.log, keeping only errors not seen in an earlier log.
+     */
+    private static final class BatchSearch {
+        static void run(Options options) throws IOException, InterruptedException {
+            ArrayList<String> inputs = expand(options.inputs);
+            if (inputs.isEmpty()) {
+                System.out.println("No logs found for " + options.inputs);
+                return;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.batchThreads, inputs.size()));
+            ArrayList<Future<ErrorBlocks>> results = new ArrayList<>();
+            try {
+                for (String input : inputs) {
+                    results.add(pool.submit(() -> {
+                        ErrorBlocks blocks = new ErrorBlocks();
+                        search(options, input, outputName(input, options), blocks);
+                        return blocks;
+                    }));
+                }
+
+                File parent = new File(inputs.get(0)).getAbsoluteFile().getParentFile();
+                File merged = new File(parent, options.filter != null ? "batch_query_uniq_all.log"
+                        : "batch_uniq_all.log");
+                Dedup dedup = options.newDedup();
+                LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
+                int failed = 0;
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged), 64 * 1024)) {
+                    for (int i = 0; i < inputs.size(); i++) {
+                        ErrorBlocks blocks;
+                        try {
+                            blocks = results.get(i).get();
+                        } catch (ExecutionException e) {
+                            System.out.println("Failed to search " + inputs.get(i) + ": " + e.getCause());
+                            failed++;
+                            continue;
+                        }
+                        merge(new File(outputName(inputs.get(i), options) + "_uniq_all.log"), blocks, dedup,
+                                sessionIDs, out);
+                    }
+                    for (String sessionID : sessionIDs) {
+                        out.write(sessionID.getBytes(StandardCharsets.UTF_8));
+                        out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                System.out.println("Searched " + (inputs.size() - failed) + " of " + inputs.size() + " logs, merged"
+                        + " into " + merged);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        /** Copies the blocks of one log whose errors are new to the batch and collects its session id list. */
+        private static void merge(File uniqueOverall, ErrorBlocks blocks, Dedup dedup,
+                LinkedHashSet<String> sessionIDs, OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(uniqueOverall.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                for (int i = 0; i < blocks.size; i++) {
+                    if (dedup.addError(blocks.identifiers.get(i))) {
+                        copy(channel, blocks.starts[i], blocks.ends[i], buf, out);
+                    }
+                }
+                // Everything after the last block is the session id list
+                ByteArrayOutputStream footer = new ByteArrayOutputStream();
+                copy(channel, blocks.end(), channel.size(), buf, footer);
+                for (String line : footer.toString().split("\\r?\\n")) {
+                    if (!line.isEmpty()) {
+                        sessionIDs.add(line);
+                    }
+                }
+            }
+        }
+
+        /** Glob patterns (in the file name part) are expanded in name order; @file reads a list, one log per line. */
+        private static ArrayList<String> expand(List<String> args) throws IOException {
+            ArrayList<String> inputs = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.startsWith("@")) {
+                    for (String line : Files.readAllLines(Paths.get(arg.substring(1)))) {
+                        if (!line.trim().isEmpty()) {
+                            inputs.add(line.trim());
+                        }
+                    }
+                } else if (arg.matches(".*[*?\\[{].*")) {
+                    Path pattern = Paths.get(arg);
+                    Path dir = pattern.getParent() == null ? Paths.get(".") : pattern.getParent();
+                    ArrayList<String> matches = new ArrayList<>();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                            pattern.getFileName().toString())) {
+                        for (Path match : stream) {
+                            if (Files.isRegularFile(match)) {
+                                matches.add(pattern.getParent() == null ? match.getFileName().toString()
+                                        : match.toString());
+                            }
+                        }
+                    }
+                    Collections.sort(matches);
+                    inputs.addAll(matches);
+                } else {
+                    inputs.add(arg);
+                }
+            }
+            return inputs;
+        }
+    }
+
+    /** Copies bytes [from, to) of {@code channel} to {@code out} through {@code buf}, with positioned reads. */
+    private static void copy(FileChannel channel, long from, long to, ByteBuffer buf, OutputStream out)
+            throws IOException {
+        for (long pos = from; pos < to; ) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), to - pos));
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                throw new EOFException("File ends before offset " + to);
+            }
+            out.write(buf.array(), 0, n);
+            pos += n;
+        }
+    }
+
+    /** Error identifier and _uniq_all.log byte range of every block one run wrote there, in order. */
+    private static final class ErrorBlocks {
+        final ArrayList<String> identifiers = new ArrayList<>();
+        long[] starts = new long[64];
+        long[] ends = new long[64];
+        int size;
 
-        HashSet<String> errors = new HashSet<>();
-        HashMap<String, HashSet<String>> sessionMap = null;
-        if (uniqueInSession != null) {
-            sessionMap = new HashMap<>();
+        void add(String identifier, long start, long end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            identifiers.add(identifier);
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        /** Where the blocks end and the session id list begins. */
+        long end() {
+            return size == 0 ? 0 : ends[size - 1];
+        }
+    }
+
+    // A .gz log is decompressed while it is read, its members concurrently with --parallel
+    private static BufferedReader openReader(String inputFile, boolean compressed, int threads) throws IOException {
+        if (!compressed) {
+            return new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), StandardCharsets.UTF_8),
+                    32 * 1024);
         }
+        InputStream in = threads > 0 ? new ParallelGunzipStream(inputFile, threads)
+                : new GZIPInputStream(new FileInputStream(inputFile), 64 * 1024);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 32 * 1024);
+    }
+
+    private static void findAndLogErrors(BufferedReader br, OutputStage out, Dedup dedup, ErrorFilter filter,
+            Statistics stats) throws IOException {
 
         LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
 
@@ -44,7 +343,13 @@ public class LogSearch {
         String line3 = br.readLine();
         while (line3 != null) {
             if (line1.contains("Starting Rule Debug Messages") && line1.contains("Session Id=")) {
-                sessionIDs.add(line1.split("Session Id=")[1].split(" ")[0]);
+                String sessionID = line1.split("Session Id=")[1].split(" ")[0];
+                if (filter == null || filter.acceptsSessionStart(line1, sessionID)) {
+                    sessionIDs.add(sessionID);
+                }
+            } else if (line1.contains("<Error>") && filter != null && !filter.acceptsError(line1, line2, line3)) {
+                line2 = br.readLine();
+                line3 = br.readLine();
             } else if (line1.contains("<Error>")) {
                 int idx = line1.indexOf("Session Id=");
                 StringBuilder idSb = new StringBuilder();
@@ -59,96 +364,41 @@ public class LogSearch {
                 String id = idSb.toString();
 
                 // Check if rule error or non-rule error
+                String errorIdentifier;
                 if (line2.contains("RULE ERROR: The rule with GROUP ID =")) {
-                    if (!errors.contains(line2)) {
-                        errors.add(line2);
-                        String error = generateErrorLines(br, line1, line2, line3);
-                        uniqueOverall.write(error);
-
-                        if (uniqueInSession != null) {
-                            HashSet<String> err;
-                            if (sessionMap.containsKey(id)) {
-                                err = sessionMap.get(id);
-                            } else {
-                                err = new HashSet<>();
-                                sessionMap.put(id, err);
-                            }
-                            err.add(line2);
-                            uniqueInSession.write(error);
-                        }
-                    } else if (uniqueInSession != null) {
-                        if (!sessionMap.containsKey(id)) {
-                            HashSet<String> err = new HashSet<>();
-                            sessionMap.put(id, err);
-                            err.add(line2);
-                            uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                        } else {
-                            HashSet<String> err = sessionMap.get(id);
-                            if (!err.contains(line2)) {
-                                err.add(line2);
-                                uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                            }
-                        }
-                    }
-                } else {
-                    String errorIdentifier;
-                    if (line2.contains("Exception")) {
-                        errorIdentifier = line2;
-                    } else if (line3.contains("Exception")) {
-                        if (line2.trim().length() > 0) {
-                            errorIdentifier = line2.split("line")[0].trim();
-                        } else {
-                            errorIdentifier = line3;
-                        }
+                    errorIdentifier = line2;
+                } else if (line2.contains("Exception")) {
+                    errorIdentifier = line2;
+                } else if (line3.contains("Exception")) {
+                    if (line2.trim().length() > 0) {
+                        errorIdentifier = line2.split("line")[0].trim();
                     } else {
-                        int idxPipe = line1.lastIndexOf("|");
-                        errorIdentifier = line1.substring(idxPipe + 1).trim();
+                        errorIdentifier = line3;
                     }
+                } else {
+                    int idxPipe = line1.lastIndexOf("|");
+                    errorIdentifier = line1.substring(idxPipe + 1).trim();
+                }
 
-                    if (!errors.contains(errorIdentifier)) {
-                        errors.add(errorIdentifier);
-                        String error = generateErrorLines(br, line1, line2, line3);
-                        uniqueOverall.write(error);
-
-                        if (uniqueInSession != null) {
-                            HashSet<String> err;
-                            if (sessionMap.containsKey(id)) {
-                                err = sessionMap.get(id);
-                            } else {
-                                err = new HashSet<>();
-                                sessionMap.put(id, err);
-                            }
-                            err.add(errorIdentifier);
-                            uniqueInSession.write(error);
-                        }
-                    } else if (uniqueInSession != null) {
-                        if (!sessionMap.containsKey(id)) {
-                            HashSet<String> err = new HashSet<>();
-                            sessionMap.put(id, err);
-                            err.add(errorIdentifier);
-                            uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                        } else {
-                            HashSet<String> err = sessionMap.get(id);
-                            if (!err.contains(errorIdentifier)) {
-                                err.add(errorIdentifier);
-                                uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                            }
-                        }
-                    }
+                boolean newOverall = dedup.addError(errorIdentifier);
+                boolean newInSession = out.perSession() && dedup.addSessionError(id, errorIdentifier);
+                if (stats != null) {
+                    stats.add(errorIdentifier, id, ErrorFilter.timestamp(line1), newInSession);
+                }
+                if (newOverall || newInSession) {
+                    writeErrorLines(br, line1, line2, line3, errorIdentifier,
+                            OutputStage.targets(newOverall, newInSession), out);
                 }
 
                 line2 = br.readLine();
                 line3 = br.readLine();
-            } else if (uniqueInSession != null && line3.contains("Rule Ended [ Unsuccessfully ]")) {
-                uniqueInSession.write(line1);
-                uniqueInSession.newLine();
-                uniqueInSession.write(line2);
-                uniqueInSession.newLine();
-                uniqueInSession.write(line3);
-                uniqueInSession.newLine();
+            } else if (out.perSession() && line3.contains("Rule Ended [ Unsuccessfully ]")
+                    && (filter == null || filter.acceptsRuleEnded(line1, line2, line3))) {
+                out.writeLine(OutputStage.SESSION, line1);
+                out.writeLine(OutputStage.SESSION, line2);
+                out.writeLine(OutputStage.SESSION, line3);
                 while ((line1 = br.readLine()) != null && !line1.isEmpty()) {
-                    uniqueInSession.write(line1);
-                    uniqueInSession.newLine();
+                    out.writeLine(OutputStage.SESSION, line1);
                 }
 
                 line2 = br.readLine();
@@ -161,48 +411,2724 @@ public class LogSearch {
         }
 
         for (String sessionID : sessionIDs) {
-            uniqueOverall.write(sessionID);
-            uniqueOverall.newLine();
+            out.writeLine(OutputStage.OVERALL, sessionID);
         }
     }
 
-    private static String generateErrorLines(BufferedReader br, String line1, String line2, String line3)
-            throws IOException {
-        StringBuilder error = new StringBuilder();
-        String newLine = System.lineSeparator();
+    private static void writeErrorLines(BufferedReader br, String line1, String line2, String line3,
+            String errorIdentifier, int targets, OutputStage out) throws IOException {
+        long start = out.position();
+        out.writeLine(targets, line1);
+
+        TagBalance block = new TagBalance();
+        if (!block.feed(line1)) {
+            out.writeLine(targets, line2);
+
+            if (!block.feed(line2)) {
+                out.writeLine(targets, line3);
+                block.feed(line3);
+                String ln;
+                while (block.inBlock() && (ln = br.readLine()) != null) {
+                    out.writeLine(targets, ln);
+                    block.feed(ln);
+                }
+            }
+        }
+        out.newLine(targets);
+        out.recordBlock(targets, errorIdentifier, start);
+    }
+
+    /*
+     * Splits lines into error blocks delimited by '<' and '>': a block ends at the line that takes the running balance
+     * to zero or below. The local module has its own, for the flow logs, so that this tool stays one file.
+     */
+    private static final class TagBalance {
+
+        private boolean inBlock;
+        private int balance;
+        private long blockEnd = -1;
+
+        /** Feeds a whole line whose offsets are not tracked and returns whether it ends a block. */
+        boolean feed(CharSequence line) {
+            int open = 0;
+            for (int i = 0, length = line.length(); i < length; i++) {
+                char c = line.charAt(i);
+                if (c == '<') {
+                    open++;
+                } else if (c == '>') {
+                    open--;
+                }
+            }
+            return feed(open, -1);
+        }
+
+        /** Feeds bytes [from, to) of {@code buf}, the line ending at {@code end}; returns whether it ends a block. */
+        boolean feed(ByteBuffer buf, int from, int to, long end) {
+            int open = 0;
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b == '<') {
+                    open++;
+                } else if (b == '>') {
+                    open--;
+                }
+            }
+            return feed(open, end);
+        }
+
+        private boolean feed(int open, long end) {
+            if (!inBlock) {
+                inBlock = true;
+                balance = 0;
+                blockEnd = -1;
+            }
+            balance += open;
+            if (balance <= 0) {
+                inBlock = false;
+                blockEnd = end;
+                return true;
+            }
+            return false;
+        }
+
+        /** Whether a block was started and has not ended yet. */
+        boolean inBlock() {
+            return inBlock;
+        }
+
+        /** End of the line that ended the last block, -1 while it has not ended. */
+        long blockEnd() {
+            return blockEnd;
+        }
+    }
+
+    private static void findAndLogErrors(MappedLog log, OutputStage out, Dedup dedup, ErrorFilter filter,
+            Statistics stats) throws IOException {
+        MappedSearch search = new MappedSearch(out, dedup, filter, stats, new LinkedHashSet<>(), false);
+        search.scan(log, 0);
+        search.writeSessionIDs();
+    }
+
+    /*
+     * Same window walk as findAndLogErrors(BufferedReader, ...), over the bytes of a mapped file. In follow mode it
+     * stops before the first window that is not completely written yet.
+     */
+    private static final class MappedSearch {
+        private final OutputStage out;
+        private final Dedup dedup;
+        private final ErrorFilter filter;
+        private final Statistics stats;
+        private final LinkedHashSet<String> sessionIDs;
+        private final boolean follow;
+
+        MappedSearch(OutputStage out, Dedup dedup, ErrorFilter filter, Statistics stats,
+                LinkedHashSet<String> sessionIDs, boolean follow) {
+            this.out = out;
+            this.dedup = dedup;
+            this.filter = filter;
+            this.stats = stats;
+            this.sessionIDs = sessionIDs;
+            this.follow = follow;
+        }
+
+        /** Walks the log from the line starting at {@code from}; returns the offset of the first unprocessed line. */
+        long scan(MappedLog log, long from) throws IOException {
+            Window w = new Window(log);
+            boolean more = w.fill(from);
+            while (more) {
+                if (follow && !w.line3.complete) {
+                    return w.line1.start;
+                }
+
+                byte event = w.event(filter, out.perSession());
+                if (event == Window.SESSION_START) {
+                    sessionIDs.add(w.sessionID);
+                } else if (event == Window.SKIP) {
+                    w.skipBlock();
+                } else if (event == Window.ERROR) {
+                    if (follow && w.blockEnd() < 0) {
+                        return w.line1.start;
+                    }
 
-        error.append(line1 + newLine);
+                    String id = w.errorSessionId();
+                    String errorIdentifier = w.errorIdentifier();
 
-        int open = calculateOpenTags(line1);
-        if (open > 0) {
-            error.append(line2 + newLine);
-            open += calculateOpenTags(line2);
+                    boolean newOverall = dedup.addError(errorIdentifier);
+                    boolean newInSession = out.perSession() && dedup.addSessionError(id, errorIdentifier);
+                    if (stats != null) {
+                        stats.add(errorIdentifier, id, w.timestamp(), newInSession);
+                    }
+
+                    if (newOverall || newInSession) {
+                        writeErrorLines(w, errorIdentifier, OutputStage.targets(newOverall, newInSession), out);
+                    }
+                    w.skipBlock();
+                } else if (event == Window.RULE_ENDED) {
+                    if (follow && !log.blankLineFollows(w.line1.start)) {
+                        return w.line1.start;
+                    }
+                    writeRuleEndedLines(w, out);
+                    w.skipBlock();
+                }
+                more = w.slide();
+            }
+            return w.line1.isNull() ? log.cursor() : w.line1.start;
+        }
+
+        void writeSessionIDs() throws IOException {
+            for (String sessionID : sessionIDs) {
+                out.writeLine(OutputStage.OVERALL, sessionID);
+            }
+        }
+    }
+
+    /*
+     * --follow: each round only reads what was appended since the previous one. Where to resume, the dedup state and
+     * the session ids are kept in a checkpoint file next to the outputs.
+     */
+    private static void follow(Options options, String fileName) throws IOException, InterruptedException {
+        File checkpointFile = new File(fileName + "_search.ckpt");
+        File overallFile = new File(fileName + "_uniq_all.log");
+        File sessionFile = new File(fileName + "_uniq_sesh.log");
+        while (true) {
+            Checkpoint checkpoint = Checkpoint.load(checkpointFile, options);
+            try (MappedLog log = new MappedLog(options.inputFile)) {
+                if (checkpoint != null && !checkpoint.matches(log, overallFile, sessionFile)) {
+                    System.out.println("Log or outputs changed since the last checkpoint, starting over");
+                    checkpoint = null;
+                }
+                if (checkpoint == null) {
+                    checkpoint = new Checkpoint(options);
+                }
+
+                truncate(overallFile, checkpoint.overallLength);
+                truncate(sessionFile, checkpoint.sessionLength);
+                try (OutputStage out = new OutputStage(overallFile, sessionFile, true)) {
+                    MappedSearch search = new MappedSearch(out, checkpoint.dedup, options.filter, checkpoint.stats,
+                            checkpoint.sessionIDs, true);
+                    checkpoint.offset = search.scan(log, checkpoint.offset);
+                    out.flush();
+                    checkpoint.overallLength = overallFile.length();
+                    checkpoint.sessionLength = sessionFile.length();
+                    search.writeSessionIDs();
+                }
+                checkpoint.save(checkpointFile, log);
+                if (checkpoint.stats != null) {
+                    checkpoint.stats.write(fileName);
+                }
+            }
+
+            if (options.pollSeconds == 0) {
+                return;
+            }
+            Thread.sleep(options.pollSeconds * 1000L);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    /** Follow-mode state between two calls. */
+    private static final class Checkpoint {
+        private static final int MAGIC = 0x4C53434B;
+        private static final int VERSION = 3;
+        private static final int HEAD = 4096;
+
+        final Dedup dedup;
+        final byte dedupMode;
+        final String filterSpec;
+        final Statistics stats;
+        final LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
+        long offset;
+        long overallLength;
+        long sessionLength;
+        int headLength;
+        long headHash;
+
+        Checkpoint(Options options) {
+            this.dedup = options.newDedup();
+            this.dedupMode = options.dedupMode();
+            this.filterSpec = options.filter == null ? null : options.filter.spec;
+            this.stats = options.stats ? new Statistics(dedup) : null;
+        }
+
+        /** Returns null if there is no usable checkpoint for these options. */
+        static Checkpoint load(File file, Options options) throws IOException {
+            if (!file.exists()) {
+                return null;
+            }
+            Checkpoint checkpoint = new Checkpoint(options);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    System.out.println("Ignoring unreadable checkpoint " + file);
+                    return null;
+                }
+                if (in.readByte() != checkpoint.dedupMode) {
+                    System.out.println("Checkpoint was written with other dedup options, starting over");
+                    return null;
+                }
+                if (!Objects.equals(readString(in), checkpoint.filterSpec)) {
+                    System.out.println("Checkpoint was written with other query filters, starting over");
+                    return null;
+                }
+                if (in.readBoolean() != (checkpoint.stats != null)) {
+                    System.out.println("Checkpoint was written with other --stats option, starting over");
+                    return null;
+                }
+                checkpoint.offset = in.readLong();
+                checkpoint.overallLength = in.readLong();
+                checkpoint.sessionLength = in.readLong();
+                checkpoint.headLength = in.readInt();
+                checkpoint.headHash = in.readLong();
+                for (int i = in.readInt(); i > 0; i--) {
+                    checkpoint.sessionIDs.add(readString(in));
+                }
+                checkpoint.dedup.load(in);
+                if (checkpoint.stats != null) {
+                    checkpoint.stats.load(in);
+                }
+            } catch (EOFException e) {
+                System.out.println("Ignoring truncated checkpoint " + file);
+                return null;
+            }
+            return checkpoint;
+        }
+
+        /** Whether the log is the one this checkpoint was taken on and the outputs still hold what it covers. */
+        boolean matches(MappedLog log, File overallFile, File sessionFile) throws IOException {
+            return offset <= log.size() && log.headHash(headLength) == headHash
+                    && overallFile.length() >= overallLength && sessionFile.length() >= sessionLength;
+        }
+
+        void save(File file, MappedLog log) throws IOException {
+            headLength = (int) Math.min(log.size(), HEAD);
+            headHash = log.headHash(headLength);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(dedupMode);
+                writeString(out, filterSpec);
+                out.writeBoolean(stats != null);
+                out.writeLong(offset);
+                out.writeLong(overallLength);
+                out.writeLong(sessionLength);
+                out.writeInt(headLength);
+                out.writeLong(headHash);
+                out.writeInt(sessionIDs.size());
+                for (String sessionID : sessionIDs) {
+                    writeString(out, sessionID);
+                }
+                dedup.save(out);
+                if (stats != null) {
+                    stats.save(out);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Gzip decoder for multi-member files (pigz, bgzip, concatenated .gz). Every gzip header in the next stretch of the
+     * file is inflated speculatively; the reader follows the members that really chain and cancels the others.
+     */
+    static final class ParallelGunzipStream extends InputStream {
+        private static final int BLOCK = 256 * 1024;
+        private static final int QUEUED_BLOCKS = 8;
+        private static final long LOOKAHEAD = 64L * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private final int threads;
+        private final ExecutorService pool;
+        private final ArrayDeque<Member> inFlight = new ArrayDeque<>();
+        private long scanned;
+        private long position;
+        private Member current;
+        private byte[] block = new byte[0];
+        private int blockPos;
+        private boolean eof;
+
+        ParallelGunzipStream(String file, int threads) throws IOException {
+            this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            this.size = channel.size();
+            this.threads = threads;
+            this.pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "gunzip");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (blockPos == block.length) {
+                if (eof) {
+                    return -1;
+                }
+                nextBlock();
+            }
+            int n = Math.min(len, block.length - blockPos);
+            System.arraycopy(block, blockPos, b, off, n);
+            blockPos += n;
+            return n;
+        }
+
+        private void nextBlock() throws IOException {
+            if (current == null) {
+                current = memberAt(position);
+                if (current == null) {
+                    if (position == 0) {
+                        throw new ZipException("Not in GZIP format");
+                    }
+                    // Like GZIPInputStream, anything after the last member that is no gzip header is ignored
+                    eof = true;
+                    return;
+                }
+            }
+            Object next;
+            try {
+                next = current.output.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (next instanceof byte[]) {
+                block = (byte[]) next;
+                blockPos = 0;
+            } else if (next instanceof Error) {
+                throw (Error) next;
+            } else if (next instanceof Throwable) {
+                if (position > 0 && !current.inflated && inFlight.isEmpty() && nextCandidate(size) < 0) {
+                    // Like GZIPInputStream, a header after the last member that starts no readable member ends the
+                    // stream; one that yielded data or is followed by more members is corrupt
+                    eof = true;
+                    return;
+                }
+                throw new IOException("Corrupt gzip member at offset " + current.offset, (Throwable) next);
+            } else {
+                position = (Long) next;
+                current = null;
+            }
+        }
+
+        private Member memberAt(long offset) throws IOException {
+            while (!inFlight.isEmpty() && inFlight.peek().offset < offset) {
+                inFlight.poll().cancel();
+            }
+            scanned = Math.max(scanned, offset);
+            while (inFlight.size() < Math.max(1, threads - 1)) {
+                long candidate = nextCandidate(offset + LOOKAHEAD);
+                if (candidate < 0) {
+                    break;
+                }
+                Member member = new Member(candidate);
+                pool.execute(() -> inflate(member));
+                inFlight.add(member);
+            }
+            return !inFlight.isEmpty() && inFlight.peek().offset == offset ? inFlight.poll() : null;
+        }
+
+        /** Next offset below {@code limit} holding a gzip header signature with a valid flag byte, or -1. */
+        private long nextCandidate(long limit) throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            while (scanned < Math.min(limit, size - 18)) {
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                int n = Math.max(channel.read(bb, scanned), 0);
+                for (int i = 0; i + 3 < n; i++) {
+                    if (buf[i] == (byte) 0x1f && buf[i + 1] == (byte) 0x8b && buf[i + 2] == 8
+                            && (buf[i + 3] & 0xE0) == 0) {
+                        long candidate = scanned + i;
+                        scanned = candidate + 1;
+                        return candidate;
+                    }
+                }
+                scanned += Math.max(n - 3, 1);
+            }
+            return -1;
+        }
+
+        // Never interrupted, as that would close the shared channel; a cancelled member stops at its next block
+        private void inflate(Member member) {
+            Object result;
+            try {
+                result = inflateMember(member);
+            } catch (Throwable e) {
+                result = e;
+            }
+            member.offer(result);
+        }
+
+        private long inflateMember(Member member) throws IOException {
+            MemberInput in = new MemberInput(channel, member.offset);
+            if (in.read() != 0x1f || in.read() != 0x8b || in.read() != 8) {
+                throw new IOException("Not in gzip format");
+            }
+            int flags = in.read();
+            in.skip(6);
+            if ((flags & 4) != 0) {
+                in.skip(in.read() | in.read() << 8);
+            }
+            if ((flags & 8) != 0) {
+                in.skipString();
+            }
+            if ((flags & 16) != 0) {
+                in.skipString();
+            }
+            if ((flags & 2) != 0) {
+                in.skip(2);
+            }
 
-            if (open > 0) {
-                error.append(line3 + newLine);
-                open += calculateOpenTags(line3);
-                while (open > 0) {
-                    String ln = br.readLine();
-                    error.append(ln + newLine);
-                    open += calculateOpenTags(ln);
+            Inflater inflater = new Inflater(true);
+            CRC32 crc = new CRC32();
+            long total = 0;
+            try {
+                byte[] out = new byte[BLOCK];
+                int outLen = 0;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        in.feed(inflater);
+                    }
+                    int n;
+                    try {
+                        n = inflater.inflate(out, outLen, out.length - outLen);
+                    } catch (DataFormatException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                    if (n == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Deflate stream needs a preset dictionary");
+                    }
+                    if (n > 0) {
+                        member.inflated = true;
+                    }
+                    crc.update(out, outLen, n);
+                    outLen += n;
+                    total += n;
+                    if (outLen == out.length) {
+                        if (!member.offer(out)) {
+                            return -1;
+                        }
+                        out = new byte[BLOCK];
+                        outLen = 0;
+                    }
                 }
+                if (outLen > 0 && !member.offer(Arrays.copyOf(out, outLen))) {
+                    return -1;
+                }
+                in.unread(inflater.getRemaining());
+            } finally {
+                inflater.end();
+            }
+
+            if (in.readIntLE() != (int) crc.getValue() || in.readIntLE() != (int) total) {
+                throw new IOException("Corrupt gzip trailer");
+            }
+            return in.position();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.cancel();
             }
+            for (Member member : inFlight) {
+                member.cancel();
+            }
+            pool.shutdown();
+            channel.close();
         }
-        error.append(newLine);
 
-        return error.toString();
+        private static final class Member {
+            final long offset;
+            final ArrayBlockingQueue<Object> output = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+            /** Whether the deflate data yielded any byte. */
+            volatile boolean inflated;
+            private volatile boolean cancelled;
+
+            Member(long offset) {
+                this.offset = offset;
+            }
+
+            void cancel() {
+                cancelled = true;
+                output.clear();
+            }
+
+            /** Waits for room in the queue; false if the member is cancelled meanwhile. */
+            boolean offer(Object item) {
+                try {
+                    while (!cancelled) {
+                        if (output.offer(item, 50, TimeUnit.MILLISECONDS)) {
+                            return true;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        }
     }
 
-    private static int calculateOpenTags(String line) {
-        int open = 0;
-        for (byte b : line.getBytes()) {
-            if (b == '<') {
-                open++;
-            } else if (b == '>') {
-                open--;
+    /** Buffered positioned reads of one gzip member, independent of other readers of the channel. */
+    private static final class MemberInput {
+        private final FileChannel channel;
+        private final byte[] buf = new byte[64 * 1024];
+        private long filePos;
+        private int pos;
+        private int len;
+
+        MemberInput(FileChannel channel, long offset) {
+            this.channel = channel;
+            this.filePos = offset;
+        }
+
+        private boolean fill() throws IOException {
+            int n = channel.read(ByteBuffer.wrap(buf), filePos);
+            if (n <= 0) {
+                return false;
+            }
+            filePos += n;
+            pos = 0;
+            len = n;
+            return true;
+        }
+
+        int read() throws IOException {
+            if (pos == len && !fill()) {
+                throw new EOFException("Unexpected end of gzip member");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        int readIntLE() throws IOException {
+            return read() | read() << 8 | read() << 16 | read() << 24;
+        }
+
+        void skip(int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                read();
             }
         }
 
-        return open;
+        void skipString() throws IOException {
+            while (read() != 0) {
+                // zero-terminated
+            }
+        }
+
+        /** Hands all buffered input to the inflater. */
+        void feed(Inflater inflater) throws IOException {
+            if (pos == len && !fill()) {
+                throw new EOFException("Unexpected end of gzip member");
+            }
+            inflater.setInput(buf, pos, len - pos);
+            pos = len;
+        }
+
+        /** Takes back input the inflater did not use. */
+        void unread(int n) {
+            pos -= n;
+        }
+
+        long position() {
+            return filePos - (len - pos);
+        }
+    }
+
+    /*
+     * <log>_errors.idx: (session id, fingerprint, offset, length) of every error block, sorted once by session id and
+     * once by fingerprint for binary search.
+     */
+    private static final class ErrorIndex {
+        private static final int MAGIC = 0x4C534958;
+        private static final int VERSION = 1;
+        private static final int HEADER = 4 + 4 + 8 + 4 + 8 + 4;
+        private static final int RECORD = 8 + 8 + 8 + 4;
+        private static final int HEAD = 4096;
+
+        /** Writes the index for the whole log and returns the number of blocks in it. */
+        static int build(String inputFile, File indexFile) throws IOException {
+            int count = 0;
+            long[] sessions = new long[1024];
+            long[] fingerprints = new long[1024];
+            long[] offsets = new long[1024];
+            int[] lengths = new int[1024];
+            long logSize;
+            int headLength;
+            long headHash;
+
+            try (MappedLog log = new MappedLog(inputFile)) {
+                Window w = new Window(log);
+                for (boolean more = w.fill(0); more; more = w.slide()) {
+                    if (w.event(null, false) == Window.ERROR) {
+                        long end = w.blockEnd();
+                        if (end >= 0 && end - w.line1.start <= Integer.MAX_VALUE) {
+                            if (count == offsets.length) {
+                                sessions = Arrays.copyOf(sessions, count * 2);
+                                fingerprints = Arrays.copyOf(fingerprints, count * 2);
+                                offsets = Arrays.copyOf(offsets, count * 2);
+                                lengths = Arrays.copyOf(lengths, count * 2);
+                            }
+                            sessions[count] = FingerprintDedup.sessionKey(w.errorSessionId());
+                            fingerprints[count] = FingerprintDedup.fingerprint(w.errorIdentifier(), null);
+                            offsets[count] = w.line1.start;
+                            lengths[count] = (int) (end - w.line1.start);
+                            count++;
+                        }
+                    }
+                }
+                logSize = log.size();
+                headLength = (int) Math.min(logSize, HEAD);
+                headHash = log.headHash(headLength);
+            }
+
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(logSize);
+                out.writeInt(headLength);
+                out.writeLong(headHash);
+                out.writeInt(count);
+                for (long[] keys : new long[][] { sessions, fingerprints }) {
+                    // Blocks were found in offset order, so a stable sort leaves equal keys ordered by offset
+                    for (int i : sortedBy(keys, count)) {
+                        out.writeLong(sessions[i]);
+                        out.writeLong(fingerprints[i]);
+                        out.writeLong(offsets[i]);
+                        out.writeInt(lengths[i]);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        }
+
+        /** Stable merge sort of the positions 0..count-1 by their key. */
+        private static int[] sortedBy(long[] keys, int count) {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            int[] buffer = new int[count];
+            for (int width = 1; width < count; width *= 2) {
+                for (int lo = 0; lo < count - width; lo += 2 * width) {
+                    int mid = lo + width;
+                    int hi = Math.min(lo + 2 * width, count);
+                    int i = lo;
+                    int j = mid;
+                    int k = lo;
+                    while (i < mid && j < hi) {
+                        buffer[k++] = keys[order[j]] < keys[order[i]] ? order[j++] : order[i++];
+                    }
+                    while (i < mid) {
+                        buffer[k++] = order[i++];
+                    }
+                    while (j < hi) {
+                        buffer[k++] = order[j++];
+                    }
+                    System.arraycopy(buffer, lo, order, lo, hi - lo);
+                }
+            }
+            return order;
+        }
+
+        /** Writes every block with the given session key or fingerprint to {@code out}; returns how many there were. */
+        static long lookup(String inputFile, File indexFile, boolean bySession, long key, OutputStream out)
+                throws IOException {
+            try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+                    MappedLog log = new MappedLog(inputFile)) {
+                ByteBuffer header = readAt(index, 0, HEADER);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not an error index: " + indexFile);
+                }
+                long logSize = header.getLong();
+                int headLength = header.getInt();
+                long headHash = header.getLong();
+                long count = header.getInt();
+                if (logSize != log.size() || log.headHash(headLength) != headHash) {
+                    throw new IOException("Error index " + indexFile + " is out of date, rebuild it with --index");
+                }
+
+                long section = HEADER + (bySession ? 0 : count * RECORD);
+                int keyOffset = bySession ? 0 : 8;
+                long lo = 0;
+                long hi = count;
+                while (lo < hi) {
+                    long mid = (lo + hi) >>> 1;
+                    if (readAt(index, section + mid * RECORD + keyOffset, 8).getLong() < key) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+
+                byte[] separator = (System.lineSeparator() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                long found = 0;
+                for (long i = lo; i < count; i++) {
+                    ByteBuffer record = readAt(index, section + i * RECORD, RECORD);
+                    long session = record.getLong();
+                    long fingerprint = record.getLong();
+                    if ((bySession ? session : fingerprint) != key) {
+                        break;
+                    }
+                    log.copy(record.getLong(), record.getInt(), buf, out);
+                    out.write(separator);
+                    found++;
+                }
+                return found;
+            }
+        }
+
+        private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    throw new EOFException("Truncated error index");
+                }
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+
+    private static void writeErrorLines(Window w, String errorIdentifier, int targets, OutputStage out)
+            throws IOException {
+        MappedLog log = w.log;
+        long start = out.position();
+        out.writeLine(targets, log, w.line1);
+
+        TagBalance block = new TagBalance();
+        if (!log.feed(block, w.line1)) {
+            out.writeLine(targets, log, w.line2);
+
+            if (!log.feed(block, w.line2)) {
+                out.writeLine(targets, log, w.line3);
+                log.feed(block, w.line3);
+                Span ln = new Span();
+                while (block.inBlock() && log.read(ln, log.cursor())) {
+                    out.writeLine(targets, log, ln);
+                    log.feed(block, ln);
+                }
+            }
+        }
+        out.newLine(targets);
+        out.recordBlock(targets, errorIdentifier, start);
+    }
+
+    /** Writes the window and the lines after it up to the next blank one to _uniq_sesh.log. */
+    private static void writeRuleEndedLines(Window w, OutputStage out) throws IOException {
+        out.writeLine(OutputStage.SESSION, w.log, w.line1);
+        out.writeLine(OutputStage.SESSION, w.log, w.line2);
+        out.writeLine(OutputStage.SESSION, w.log, w.line3);
+        Span ln = new Span();
+        while (w.log.read(ln, w.log.cursor()) && ln.length() > 0) {
+            out.writeLine(OutputStage.SESSION, w.log, ln);
+        }
+    }
+
+    /*
+     * Writes _uniq_all.log and _uniq_sesh.log from a separate thread. Lines are encoded into pooled batches, each piece
+     * tagged with the files it goes to.
+     */
+    static final class OutputStage implements Closeable {
+        static final int OVERALL = 1;
+        static final int SESSION = 2;
+        private static final int BATCH = 1024 * 1024;
+        private static final int POOL = 4;
+        private static final Batch END = new Batch(0);
+
+        private final FileChannel overall;
+        private final FileChannel session;
+        private final ArrayBlockingQueue<Batch> free = new ArrayBlockingQueue<>(POOL);
+        private final ArrayBlockingQueue<Batch> full = new ArrayBlockingQueue<>(POOL + 1);
+        private final Thread writer;
+        private final byte[] newLine = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        private volatile IOException failure;
+        private Batch batch;
+        private long position;
+        private ErrorBlocks blocks;
+
+        /** {@code sessionFile} may be null to write _uniq_all.log only. */
+        OutputStage(File overallFile, File sessionFile, boolean append) throws IOException {
+            this.overall = open(overallFile, append);
+            this.session = sessionFile == null ? null : open(sessionFile, append);
+            for (int i = 0; i < POOL; i++) {
+                free.add(new Batch(BATCH));
+            }
+            writer = new Thread(this::drain, "LogSearch-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private static FileChannel open(File file, boolean append) throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        static int targets(boolean overall, boolean session) {
+            return (overall ? OVERALL : 0) | (session ? SESSION : 0);
+        }
+
+        boolean perSession() {
+            return session != null;
+        }
+
+        /** Bytes written to _uniq_all.log so far (by this stage). */
+        long position() {
+            return position;
+        }
+
+        /** Notes the blocks written to _uniq_all.log from now on in {@code blocks}, if not null. */
+        void record(ErrorBlocks blocks) {
+            this.blocks = blocks;
+        }
+
+        void recordBlock(int targets, String errorIdentifier, long start) {
+            if (blocks != null && (targets & OVERALL) != 0) {
+                blocks.add(errorIdentifier, start, position);
+            }
+        }
+
+        void writeLine(int targets, String line) throws IOException {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if ((targets & OVERALL) != 0) {
+                position += bytes.length;
+            }
+            int pos = 0;
+            while (pos < bytes.length) {
+                ByteBuffer buffer = batch(targets).buffer;
+                int length = Math.min(buffer.remaining(), bytes.length - pos);
+                buffer.put(bytes, pos, length);
+                pos += length;
+            }
+            newLine(targets);
+        }
+
+        void writeLine(int targets, MappedLog log, Span line) throws IOException {
+            if ((targets & OVERALL) != 0) {
+                position += line.length();
+            }
+            long pos = line.start;
+            while (pos < line.end) {
+                ByteBuffer buffer = batch(targets).buffer;
+                int length = (int) Math.min(buffer.remaining(), line.end - pos);
+                log.get(pos, length, buffer);
+                pos += length;
+            }
+            newLine(targets);
+        }
+
+        void newLine(int targets) throws IOException {
+            if ((targets & OVERALL) != 0) {
+                position += newLine.length;
+            }
+            for (byte b : newLine) {
+                batch(targets).buffer.put(b);
+            }
+        }
+
+        /** Waits until everything written so far is in the files. */
+        void flush() throws IOException {
+            if (batch != null) {
+                handOff();
+            }
+            Batch[] all = new Batch[POOL];
+            for (int i = 0; i < POOL; i++) {
+                all[i] = takeFree();
+            }
+            free.addAll(Arrays.asList(all));
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /** Stops the writer thread even when the last batches could not be written, then rethrows that failure. */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                try {
+                    full.add(END);
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } finally {
+                    overall.close();
+                    if (session != null) {
+                        session.close();
+                    }
+                }
+            }
+        }
+
+        /** The current batch with room for at least one byte, its last piece tagged with {@code targets}. */
+        private Batch batch(int targets) throws IOException {
+            if (batch != null && !batch.buffer.hasRemaining()) {
+                handOff();
+            }
+            if (batch == null) {
+                if (failure != null) {
+                    throw failure;
+                }
+                batch = takeFree();
+                batch.clear();
+            }
+            batch.tag(targets);
+            return batch;
+        }
+
+        /** Waits for a batch the writer thread is done with; fails if that thread has stopped and keeps the rest. */
+        private Batch takeFree() throws IOException {
+            try {
+                while (true) {
+                    Batch next = free.poll(100, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        return next;
+                    }
+                    if (!writer.isAlive()) {
+                        next = free.poll();
+                        if (next != null) {
+                            return next;
+                        }
+                        throw failure != null ? failure : new IOException("Output writer thread stopped");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        private void handOff() throws IOException {
+            try {
+                full.put(batch);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            batch = null;
+        }
+
+        private void drain() {
+            try {
+                Batch next;
+                while ((next = full.take()) != END) {
+                    if (failure == null) {
+                        try {
+                            next.writeTo(OVERALL, overall);
+                            if (session != null) {
+                                next.writeTo(SESSION, session);
+                            }
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    free.add(next);
+                }
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException();
+            }
+        }
+    }
+
+    /** Bytes for the output files plus, for each piece of them, which files it goes to. */
+    private static final class Batch {
+        final ByteBuffer buffer;
+        private int[] starts = new int[64];
+        private int[] targets = new int[64];
+        private int pieces;
+
+        Batch(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        void clear() {
+            buffer.clear();
+            pieces = 0;
+        }
+
+        /** Starts a new piece at the current position unless the last one already goes to the same files. */
+        void tag(int target) {
+            if (pieces > 0 && targets[pieces - 1] == target) {
+                return;
+            }
+            if (pieces == starts.length) {
+                starts = Arrays.copyOf(starts, pieces * 2);
+                targets = Arrays.copyOf(targets, pieces * 2);
+            }
+            starts[pieces] = buffer.position();
+            targets[pieces] = target;
+            pieces++;
+        }
+
+        /** Writes the pieces meant for {@code target}; neighbouring ones are merged into one slice. */
+        void writeTo(int target, FileChannel channel) throws IOException {
+            ArrayList<ByteBuffer> slices = new ArrayList<>();
+            int from = -1;
+            int to = -1;
+            for (int i = 0; i < pieces; i++) {
+                int start = starts[i];
+                int end = i + 1 < pieces ? starts[i + 1] : buffer.position();
+                if ((targets[i] & target) == 0 || start == end) {
+                    continue;
+                }
+                if (start != to) {
+                    if (from >= 0) {
+                        slices.add(ByteBuffer.wrap(buffer.array(), from, to - from));
+                    }
+                    from = start;
+                }
+                to = end;
+            }
+            if (from >= 0) {
+                slices.add(ByteBuffer.wrap(buffer.array(), from, to - from));
+            }
+            ByteBuffer[] buffers = slices.toArray(new ByteBuffer[0]);
+            for (int i = 0; i < buffers.length; ) {
+                channel.write(buffers, i, buffers.length - i);
+                while (i < buffers.length && !buffers[i].hasRemaining()) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /*
+     * --parallel: workers find the candidate window lines of their chunk, and the caller replays the window walk over
+     * them in file order, as the sequential scan would.
+     */
+    private static final class ParallelSearch {
+        private static final long MIN_CHUNK = 8L * 1024 * 1024;
+        private static final long ALIGN_SCAN = 1024 * 1024;
+
+        private final MappedLog log;
+        private final int threads;
+        private final OutputStage out;
+
+        private final Dedup dedup;
+        private final ErrorFilter filter;
+        private final Statistics stats;
+        private final LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
+        private long firstLine;
+        private long nextLine;
+
+        ParallelSearch(MappedLog log, int threads, OutputStage out, Dedup dedup, ErrorFilter filter,
+                Statistics stats) {
+            this.log = log;
+            this.dedup = dedup;
+            this.filter = filter;
+            this.stats = stats;
+            this.threads = threads;
+            this.out = out;
+        }
+
+        void run() throws IOException, InterruptedException, ExecutionException {
+            long[] bounds = boundaries();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+                int submitted = 0;
+                while (submitted < bounds.length - 1 || !pending.isEmpty()) {
+                    while (submitted < bounds.length - 1 && pending.size() < threads * 2) {
+                        pending.add(pool.submit(scan(bounds[submitted], bounds[submitted + 1])));
+                        submitted++;
+                    }
+                    replay(pending.poll().get());
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            for (String sessionID : sessionIDs) {
+                out.writeLine(OutputStage.OVERALL, sessionID);
+            }
+        }
+
+        // Roughly equal chunks starting at a line boundary, preferably at an <Error> header or a blank line
+        private long[] boundaries() throws IOException {
+            long size = log.size();
+            long chunk = Math.max(MIN_CHUNK, size / (threads * 8L) + 1);
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            MappedLog probe = log.view();
+            Span line = new Span();
+            for (long nominal = chunk; nominal < size; nominal += chunk) {
+                if (nominal <= bounds.get(bounds.size() - 1)) {
+                    continue;
+                }
+                probe.seek(nominal - 1);
+                probe.read(line, nominal - 1);
+                long lineStart = probe.cursor();
+                long bound = lineStart;
+                while (probe.read(line, lineStart) && line.start - lineStart < ALIGN_SCAN) {
+                    if ((line.flags & Span.ERROR) != 0 || line.length() == 0) {
+                        bound = line.start;
+                        break;
+                    }
+                }
+                if (bound < size) {
+                    bounds.add(bound);
+                }
+            }
+            bounds.add(size);
+
+            long[] result = new long[bounds.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = bounds.get(i);
+            }
+            return result;
+        }
+
+        private Callable<Chunk> scan(long from, long to) throws IOException {
+            Window w = new Window(log.view());
+            return () -> {
+                Chunk chunk = new Chunk();
+                long index = 0;
+                for (boolean more = w.fill(from); more && w.line1.start < to; more = w.slide()) {
+                    byte event = w.event(filter, true);
+                    if (event == Window.ERROR) {
+                        chunk.add(index, w.line1.start, event, w.errorSessionId(), w.errorIdentifier());
+                        if (stats != null) {
+                            chunk.time[chunk.size - 1] = w.timestamp();
+                        }
+                    } else if (event != 0) {
+                        chunk.add(index, w.line1.start, event, event == Window.SESSION_START ? w.sessionID : null,
+                                null);
+                    }
+                    index++;
+                }
+                // The last two lines of the log start no window but still count
+                for (Span line : new Span[] { w.line1, w.line2 }) {
+                    if (line.isNull() || line.start >= to) {
+                        break;
+                    }
+                    index++;
+                }
+                chunk.lines = index;
+                return chunk;
+            };
+        }
+
+        private void replay(Chunk chunk) throws IOException {
+            Window w = new Window(log);
+            for (int i = 0; i < chunk.size; i++) {
+                long index = firstLine + chunk.index[i];
+                if (index < nextLine) {
+                    continue;
+                }
+                nextLine = index + 1;
+
+                byte type = chunk.type[i];
+                if (type == Window.SESSION_START) {
+                    sessionIDs.add(chunk.sessionId[i]);
+                } else if (type == Window.SKIP) {
+                    nextLine = index + 3;
+                } else if (type == Window.ERROR) {
+                    String id = chunk.sessionId[i];
+                    String errorIdentifier = chunk.identifier[i];
+
+                    boolean newOverall = dedup.addError(errorIdentifier);
+                    boolean newInSession = out.perSession() && dedup.addSessionError(id, errorIdentifier);
+                    if (stats != null) {
+                        stats.add(errorIdentifier, id, chunk.time[i], newInSession);
+                    }
+
+                    long consumed = 0;
+                    if (newOverall || newInSession) {
+                        w.fill(chunk.offset[i]);
+                        long before = log.lines();
+                        writeErrorLines(w, errorIdentifier, OutputStage.targets(newOverall, newInSession), out);
+                        consumed = log.lines() - before;
+                    }
+                    nextLine = index + 3 + consumed;
+                } else if (out.perSession()) {
+                    w.fill(chunk.offset[i]);
+                    long before = log.lines();
+                    writeRuleEndedLines(w, out);
+                    nextLine = index + 3 + (log.lines() - before);
+                }
+            }
+            firstLine += chunk.lines;
+        }
+    }
+
+    /** Window events found in one chunk, in columns. Error identifiers and session ids are shared within a chunk. */
+    private static final class Chunk {
+        long lines;
+        int size;
+        long[] index = new long[256];
+        long[] offset = new long[256];
+        byte[] type = new byte[256];
+        long[] time = new long[256]; // error header timestamps, only taken for --stats
+        String[] sessionId = new String[256];
+        String[] identifier = new String[256];
+        private final HashMap<String, String> shared = new HashMap<>();
+
+        void add(long lineIndex, long lineOffset, byte eventType, String session, String errorIdentifier) {
+            if (size == index.length) {
+                int capacity = size * 2;
+                index = Arrays.copyOf(index, capacity);
+                offset = Arrays.copyOf(offset, capacity);
+                type = Arrays.copyOf(type, capacity);
+                time = Arrays.copyOf(time, capacity);
+                sessionId = Arrays.copyOf(sessionId, capacity);
+                identifier = Arrays.copyOf(identifier, capacity);
+            }
+            index[size] = lineIndex;
+            offset[size] = lineOffset;
+            type[size] = eventType;
+            sessionId[size] = share(session);
+            identifier[size] = share(errorIdentifier);
+            size++;
+        }
+
+        private String share(String value) {
+            if (value == null) {
+                return null;
+            }
+            String existing = shared.putIfAbsent(value, value);
+            return existing == null ? value : existing;
+        }
+    }
+
+    /** Remembers which errors were already written, overall and per session. */
+    private interface Dedup {
+        /** Returns true the first time an error identifier is seen anywhere. */
+        boolean addError(String errorIdentifier);
+
+        /** Returns true the first time an error identifier is seen in the given session. */
+        boolean addSessionError(String sessionId, String errorIdentifier);
+
+        void save(DataOutputStream out) throws IOException;
+
+        /** Restores what {@link #save} wrote into this (empty) instance. */
+        void load(DataInputStream in) throws IOException;
+    }
+
+    /** Keeps the full identifier text, once overall and once more for every session it occurs in. */
+    private static final class ExactDedup implements Dedup {
+        private final HashSet<String> errors = new HashSet<>();
+        private final HashMap<String, HashSet<String>> sessionMap = new HashMap<>();
+
+        @Override
+        public boolean addError(String errorIdentifier) {
+            return errors.add(errorIdentifier);
+        }
+
+        @Override
+        public boolean addSessionError(String sessionId, String errorIdentifier) {
+            HashSet<String> err = sessionMap.get(sessionId);
+            if (err == null) {
+                err = new HashSet<>();
+                sessionMap.put(sessionId, err);
+            }
+            return err.add(errorIdentifier);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            out.writeInt(errors.size());
+            for (String error : errors) {
+                writeString(out, error);
+            }
+            out.writeInt(sessionMap.size());
+            for (Map.Entry<String, HashSet<String>> entry : sessionMap.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String error : entry.getValue()) {
+                    writeString(out, error);
+                }
+            }
+        }
+
+        @Override
+        public void load(DataInputStream in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                errors.add(readString(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                HashSet<String> err = new HashSet<>();
+                sessionMap.put(readString(in), err);
+                for (int j = in.readInt(); j > 0; j--) {
+                    err.add(readString(in));
+                }
+            }
+        }
+    }
+
+    /*
+     * Dedups on a 64-bit fingerprint of the identifier with numbers, timestamps and hex ids collapsed. With verify, a
+     * colliding fingerprint is rehashed until it is unique to its text.
+     */
+    private static final class FingerprintDedup implements Dedup {
+        private final LongTable errors = new LongTable();
+        private final PairTable sessionErrors = new PairTable();
+        private final boolean verify;
+        private final StringBuilder normalized;
+        private String lastIdentifier;
+        private long lastFingerprint;
+
+        FingerprintDedup(boolean verify) {
+            this.verify = verify;
+            this.normalized = verify ? new StringBuilder() : null;
+        }
+
+        @Override
+        public boolean addError(String errorIdentifier) {
+            long fingerprint = lookup(errorIdentifier);
+            boolean added = errors.put(fingerprint, verify ? normalized.toString() : null);
+            lastIdentifier = errorIdentifier;
+            lastFingerprint = fingerprint;
+            return added;
+        }
+
+        @Override
+        public boolean addSessionError(String sessionId, String errorIdentifier) {
+            return sessionErrors.add(sessionKey(sessionId), fingerprintOf(errorIdentifier));
+        }
+
+        /** The (collision-free) fingerprint the error is kept under. */
+        long fingerprintOf(String errorIdentifier) {
+            // Callers add the error overall just before, so its fingerprint is usually at hand
+            return errorIdentifier == lastIdentifier ? lastFingerprint : lookup(errorIdentifier);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            errors.save(out);
+            sessionErrors.save(out);
+        }
+
+        @Override
+        public void load(DataInputStream in) throws IOException {
+            errors.load(in);
+            sessionErrors.load(in);
+        }
+
+        private long lookup(String errorIdentifier) {
+            long fingerprint = fingerprint(errorIdentifier, normalized);
+            if (verify) {
+                String text = normalized.toString();
+                Object existing;
+                while ((existing = errors.get(fingerprint)) != null && !existing.equals(text)) {
+                    fingerprint = mix(fingerprint + 1);
+                }
+            }
+            return fingerprint;
+        }
+
+        /** Digit-only ids without a leading zero are their own value; anything else is hashed into the negatives. */
+        static long sessionKey(String sessionId) {
+            return sessionKey(sessionId, 0, sessionId.length());
+        }
+
+        static long sessionKey(CharSequence text, int start, int end) {
+            int length = end - start;
+            if (length > 0 && length <= 18 && (text.charAt(start) != '0' || length == 1)) {
+                long value = 0;
+                int i = start;
+                while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    value = value * 10 + (text.charAt(i) - '0');
+                    i++;
+                }
+                if (i == end) {
+                    return value;
+                }
+            }
+            return fingerprint(text.subSequence(start, end).toString(), null) | Long.MIN_VALUE;
+        }
+
+        // FNV-1a of the identifier with digit runs, timestamps and hex words as '#'; the text goes to out if given
+        static long fingerprint(String text, StringBuilder out) {
+            if (out != null) {
+                out.setLength(0);
+            }
+            long hash = 0xcbf29ce484222325L;
+            int length = text.length();
+            int groupEnd = groupIdEnd(text);
+            int i = 0;
+            while (i < length) {
+                char c = text.charAt(i);
+                int end = i < groupEnd ? i : numberEnd(text, i);
+                if (end > i) {
+                    while (end + 1 < length && "-:.,/ T".indexOf(text.charAt(end)) >= 0
+                            && isDigit(text.charAt(end + 1))) {
+                        end = numberEnd(text, end + 1);
+                    }
+                    c = '#';
+                    i = end;
+                } else {
+                    i++;
+                }
+                hash = (hash ^ c) * 0x100000001b3L;
+                if (out != null) {
+                    out.append(c);
+                }
+            }
+            return mix(hash);
+        }
+
+        /** End of the GROUP ID value of a rule error, which is kept verbatim; 0 for other identifiers. */
+        private static int groupIdEnd(String text) {
+            int idx = text.indexOf("GROUP ID =");
+            if (idx < 0) {
+                return 0;
+            }
+            int end = idx + "GROUP ID =".length();
+            while (end < text.length() && text.charAt(end) == ' ') {
+                end++;
+            }
+            while (end < text.length() && text.charAt(end) != ' ') {
+                end++;
+            }
+            return end;
+        }
+
+        /** End of the number, 0x literal or hex word starting at {@code i}, or {@code i} if there is none. */
+        private static int numberEnd(String text, int i) {
+            int length = text.length();
+            char c = text.charAt(i);
+            if (c == '0' && i + 2 < length && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')
+                    && isHex(text.charAt(i + 2))) {
+                int end = i + 2;
+                while (end < length && isHex(text.charAt(end))) {
+                    end++;
+                }
+                return end;
+            }
+            if (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) {
+                int end = i;
+                boolean digit = false;
+                while (end < length && isHex(text.charAt(end))) {
+                    digit |= isDigit(text.charAt(end));
+                    end++;
+                }
+                if (digit && (end == length || !Character.isLetterOrDigit(text.charAt(end)))) {
+                    return end;
+                }
+            }
+            int end = i;
+            while (end < length && isDigit(text.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isHex(char c) {
+            return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /** Open-addressing set of longs, optionally with a value per key. Key 0 is kept outside the table. */
+    private static final class LongTable {
+        private long[] keys = new long[1024];
+        private Object[] values;
+        private int size;
+        private boolean hasZero;
+        private Object zeroValue;
+
+        boolean add(long key) {
+            return put(key, null);
+        }
+
+        /** Adds the key with its value; returns false, keeping the old value, if the key was already present. */
+        boolean put(long key, Object value) {
+            if (key == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                zeroValue = value;
+                return true;
+            }
+            if (value != null && values == null) {
+                values = new Object[keys.length];
+            }
+            int slot = slot(key);
+            if (keys[slot] == key) {
+                return false;
+            }
+            keys[slot] = key;
+            if (values != null) {
+                values[slot] = value;
+            }
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return true;
+        }
+
+        Object get(long key) {
+            if (key == 0) {
+                return zeroValue;
+            }
+            int slot = slot(key);
+            return keys[slot] == key && values != null ? values[slot] : null;
+        }
+
+        /** The slot holding {@code key} (not 0), or the free slot it would go to. */
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) FingerprintDedup.mix(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            out.writeBoolean(hasZero);
+            if (hasZero) {
+                writeString(out, (String) zeroValue);
+            }
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    out.writeLong(keys[i]);
+                    writeString(out, values == null ? null : (String) values[i]);
+                }
+            }
+        }
+
+        void load(DataInputStream in) throws IOException {
+            if (in.readBoolean()) {
+                put(0, readString(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                put(in.readLong(), readString(in));
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = oldValues == null ? null : new Object[keys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues == null ? null : oldValues[i]);
+                }
+            }
+        }
+    }
+
+    /** Open-addressing set of (long, long) pairs in two parallel arrays. The pair (0, 0) marks a free slot. */
+    private static final class PairTable {
+        private long[] firsts = new long[1024];
+        private long[] seconds = new long[1024];
+        private int size;
+        private boolean hasZero;
+
+        boolean add(long first, long second) {
+            if (first == 0 && second == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            int mask = firsts.length - 1;
+            int slot = (int) FingerprintDedup.mix(first * 31 + second) & mask;
+            while (firsts[slot] != 0 || seconds[slot] != 0) {
+                if (firsts[slot] == first && seconds[slot] == second) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            firsts[slot] = first;
+            seconds[slot] = second;
+            if (++size * 2 > firsts.length) {
+                long[] oldFirsts = firsts;
+                long[] oldSeconds = seconds;
+                firsts = new long[oldFirsts.length * 2];
+                seconds = new long[oldSeconds.length * 2];
+                size = 0;
+                for (int i = 0; i < oldFirsts.length; i++) {
+                    if (oldFirsts[i] != 0 || oldSeconds[i] != 0) {
+                        add(oldFirsts[i], oldSeconds[i]);
+                    }
+                }
+            }
+            return true;
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            out.writeBoolean(hasZero);
+            out.writeInt(size);
+            for (int i = 0; i < firsts.length; i++) {
+                if (firsts[i] != 0 || seconds[i] != 0) {
+                    out.writeLong(firsts[i]);
+                    out.writeLong(seconds[i]);
+                }
+            }
+        }
+
+        void load(DataInputStream in) throws IOException {
+            if (in.readBoolean()) {
+                add(0, 0);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                add(in.readLong(), in.readLong());
+            }
+        }
+    }
+
+    // --stats: per unique error and per session, how often errors occurred and when, gathered in the same pass
+    private static final class Statistics {
+        private final Dedup dedup;
+        private final HashMap<String, ErrorStats> byIdentifier = new HashMap<>();
+        private final LongTable byFingerprint = new LongTable();
+        private final ArrayList<ErrorStats> errors = new ArrayList<>();
+        private final LinkedHashMap<String, long[]> sessions = new LinkedHashMap<>();
+
+        Statistics(Dedup dedup) {
+            this.dedup = dedup;
+        }
+
+        /** Counts one occurrence; {@code newInSession} is what the dedup answered for it. */
+        void add(String errorIdentifier, String sessionId, long time, boolean newInSession) {
+            ErrorStats stats;
+            if (dedup instanceof FingerprintDedup) {
+                long key = ((FingerprintDedup) dedup).fingerprintOf(errorIdentifier);
+                stats = (ErrorStats) byFingerprint.get(key);
+                if (stats == null) {
+                    stats = create(errorIdentifier, key, sessionId, time);
+                    byFingerprint.put(key, stats);
+                }
+            } else {
+                stats = byIdentifier.get(errorIdentifier);
+                if (stats == null) {
+                    stats = create(errorIdentifier, 0, sessionId, time);
+                    byIdentifier.put(errorIdentifier, stats);
+                }
+            }
+            stats.count++;
+            if (newInSession) {
+                stats.sessions++;
+            }
+            stats.lastTime = time;
+            stats.lastSession = sessionId;
+
+            long[] counts = sessions.get(sessionId);
+            if (counts == null) {
+                counts = new long[2];
+                sessions.put(sessionId, counts);
+            }
+            counts[0]++;
+            if (newInSession) {
+                counts[1]++;
+            }
+        }
+
+        private ErrorStats create(String errorIdentifier, long key, String sessionId, long time) {
+            ErrorStats stats = new ErrorStats();
+            stats.identifier = errorIdentifier;
+            stats.key = key;
+            stats.firstTime = time;
+            stats.firstSession = sessionId;
+            errors.add(stats);
+            return stats;
+        }
+
+        // <name>_error_stats.csv, most frequent first, and <name>_session_stats.csv
+        void write(String fileName) throws IOException {
+            ArrayList<ErrorStats> ranked = new ArrayList<>(errors);
+            ranked.sort((a, b) -> Long.compare(b.count, a.count));
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName + "_error_stats.csv"))) {
+                out.write("Fingerprint,Count,Sessions,First Time,First Session,Last Time,Last Session,Error");
+                out.newLine();
+                for (ErrorStats stats : ranked) {
+                    out.write(String.format("%016x", FingerprintDedup.fingerprint(stats.identifier, null)));
+                    out.write("," + stats.count + "," + stats.sessions + "," + formatTime(stats.firstTime) + ","
+                            + csv(stats.firstSession) + "," + formatTime(stats.lastTime) + ","
+                            + csv(stats.lastSession) + "," + csv(stats.identifier));
+                    out.newLine();
+                }
+            }
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName + "_session_stats.csv"))) {
+                out.write("Session,Errors,Unique Errors");
+                out.newLine();
+                for (Map.Entry<String, long[]> entry : sessions.entrySet()) {
+                    out.write(csv(entry.getKey()) + "," + entry.getValue()[0] + "," + entry.getValue()[1]);
+                    out.newLine();
+                }
+            }
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            out.writeInt(errors.size());
+            for (ErrorStats stats : errors) {
+                writeString(out, stats.identifier);
+                out.writeLong(stats.key);
+                out.writeLong(stats.count);
+                out.writeLong(stats.sessions);
+                out.writeLong(stats.firstTime);
+                writeString(out, stats.firstSession);
+                out.writeLong(stats.lastTime);
+                writeString(out, stats.lastSession);
+            }
+            out.writeInt(sessions.size());
+            for (Map.Entry<String, long[]> entry : sessions.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        }
+
+        /** Restores what {@link #save} wrote into this (empty) instance. */
+        void load(DataInputStream in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                ErrorStats stats = create(readString(in), in.readLong(), null, 0);
+                stats.count = in.readLong();
+                stats.sessions = in.readLong();
+                stats.firstTime = in.readLong();
+                stats.firstSession = readString(in);
+                stats.lastTime = in.readLong();
+                stats.lastSession = readString(in);
+                if (dedup instanceof FingerprintDedup) {
+                    byFingerprint.put(stats.key, stats);
+                } else {
+                    byIdentifier.put(stats.identifier, stats);
+                }
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                sessions.put(readString(in), new long[] {in.readLong(), in.readLong()});
+            }
+        }
+
+        private static String formatTime(long time) {
+            if (time < 0) {
+                return "";
+            }
+            String digits = String.format("%017d", time);
+            return digits.substring(0, 4) + "-" + digits.substring(4, 6) + "-" + digits.substring(6, 8) + " "
+                    + digits.substring(8, 10) + ":" + digits.substring(10, 12) + ":" + digits.substring(12, 14) + "."
+                    + digits.substring(14);
+        }
+
+        private static String csv(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    private static final class ErrorStats {
+        String identifier;
+        long key;
+        long count;
+        long sessions;
+        long firstTime;
+        String firstSession;
+        long lastTime;
+        String lastSession;
+    }
+
+    /*
+     * Query mode: only errors matching every criterion are kept. A rejected error is passed over like a duplicate,
+     * before its identifier is derived.
+     */
+    private static final class ErrorFilter {
+        private static final String GROUP_ID = "RULE ERROR: The rule with GROUP ID =";
+        private static final String SESSION = "Session Id=";
+
+        long[] sessions;
+        String[] groups;
+        String[] exceptions;
+        String[] components;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        /** Text identifying the criteria, so follow mode can tell whether its checkpoint was taken with them. */
+        String spec;
+
+        boolean acceptsSessionStart(CharSequence line1, String sessionId) {
+            return inWindow(line1)
+                    && (sessions == null || hasSession(FingerprintDedup.sessionKey(sessionId)));
+        }
+
+        boolean acceptsError(CharSequence line1, CharSequence line2, CharSequence line3) {
+            if (!inWindow(line1)) {
+                return false;
+            }
+            if (sessions != null) {
+                int idx = indexOf(line1, SESSION, 0);
+                int start = idx < 0 ? Math.min(10, line1.length()) : idx + SESSION.length();
+                if (!hasSessionAt(line1, start)) {
+                    return false;
+                }
+            }
+            if (components != null) {
+                int start = trimStart(line1, lastIndexOf(line1, '|') + 1, line1.length());
+                if (!anyEquals(components, line1, start, trimEnd(line1, start, line1.length()))) {
+                    return false;
+                }
+            }
+            if (groups != null) {
+                int idx = indexOf(line2, GROUP_ID, 0);
+                if (idx < 0) {
+                    return false;
+                }
+                int start = trimStart(line2, idx + GROUP_ID.length(), line2.length());
+                int end = start;
+                while (end < line2.length() && line2.charAt(end) > ' ' && line2.charAt(end) != ','
+                        && line2.charAt(end) != ';') {
+                    end++;
+                }
+                if (!anyEquals(groups, line2, start, end)) {
+                    return false;
+                }
+            }
+            return exceptions == null || exceptionMatches(line2) || exceptionMatches(line3);
+        }
+
+        boolean acceptsRuleEnded(CharSequence line1, CharSequence line2, CharSequence line3) {
+            if (groups != null || exceptions != null || components != null || !inWindow(line1)) {
+                return false;
+            }
+            if (sessions == null) {
+                return true;
+            }
+            for (CharSequence line : new CharSequence[] {line1, line2, line3}) {
+                int idx = indexOf(line, SESSION, 0);
+                if (idx >= 0) {
+                    int start = idx + SESSION.length();
+                    return hasSessionAt(line, start);
+                }
+            }
+            return false;
+        }
+
+        private boolean inWindow(CharSequence line1) {
+            if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+                return true;
+            }
+            long time = timestamp(line1);
+            return time >= 0 && time >= from && time < to;
+        }
+
+        private boolean hasSession(long key) {
+            return Arrays.binarySearch(sessions, key) >= 0;
+        }
+
+        /** Whether the digits at {@code start} are one of the session ids asked for. */
+        private boolean hasSessionAt(CharSequence line, int start) {
+            return hasSession(FingerprintDedup.sessionKey(line, start, digitsEnd(line, start)));
+        }
+
+        /** The class name around the first "Exception" on the line, matched fully qualified or by simple name. */
+        private boolean exceptionMatches(CharSequence line) {
+            int idx = indexOf(line, "Exception", 0);
+            if (idx < 0) {
+                return false;
+            }
+            int start = idx;
+            while (start > 0 && (Character.isJavaIdentifierPart(line.charAt(start - 1))
+                    || line.charAt(start - 1) == '.')) {
+                start--;
+            }
+            int end = idx;
+            while (end < line.length() && Character.isJavaIdentifierPart(line.charAt(end))) {
+                end++;
+            }
+            int simple = lastIndexOf(line, '.', start, end) + 1;
+            return anyEquals(exceptions, line, start, end)
+                    || simple > start && anyEquals(exceptions, line, simple, end);
+        }
+
+        // Leading yyyy-MM-dd HH:mm:ss[,SSS] timestamp as yyyyMMddHHmmssSSS, -1 if there is none
+        static long timestamp(CharSequence line) {
+            if (line.length() < 19) {
+                return -1;
+            }
+            long value = 0;
+            for (int i = 0; i < 19; i++) {
+                char ch = line.charAt(i);
+                if (i == 4 || i == 7) {
+                    if (ch != '-') {
+                        return -1;
+                    }
+                } else if (i == 10) {
+                    if (ch != ' ' && ch != 'T') {
+                        return -1;
+                    }
+                } else if (i == 13 || i == 16) {
+                    if (ch != ':') {
+                        return -1;
+                    }
+                } else if (ch >= '0' && ch <= '9') {
+                    value = value * 10 + (ch - '0');
+                } else {
+                    return -1;
+                }
+            }
+            int millis = 0;
+            if (line.length() >= 23 && (line.charAt(19) == ',' || line.charAt(19) == '.')) {
+                for (int i = 20; i < 23 && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++) {
+                    millis += (line.charAt(i) - '0') * (i == 20 ? 100 : i == 21 ? 10 : 1);
+                }
+            }
+            return value * 1000 + millis;
+        }
+
+        /** A --from/--to bound: a full timestamp, or a date meaning its midnight. -1 if it is neither. */
+        static long bound(String text) {
+            if (text.length() == 10) {
+                text += " 00:00:00";
+            }
+            if (text.length() != 19 && text.length() != 23) {
+                return -1;
+            }
+            return timestamp(text);
+        }
+
+        private static boolean anyEquals(String[] values, CharSequence line, int start, int end) {
+            for (String value : values) {
+                if (value.length() == end - start && regionMatches(line, start, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean regionMatches(CharSequence line, int start, String value) {
+            if (line.length() - start < value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (line.charAt(start + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(CharSequence line, String value, int from) {
+            for (int i = from; i <= line.length() - value.length(); i++) {
+                if (line.charAt(i) == value.charAt(0) && regionMatches(line, i, value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int lastIndexOf(CharSequence line, char ch) {
+            return lastIndexOf(line, ch, 0, line.length());
+        }
+
+        private static int lastIndexOf(CharSequence line, char ch, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (line.charAt(i) == ch) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int digitsEnd(CharSequence line, int from) {
+            while (from < line.length() && line.charAt(from) >= '0' && line.charAt(from) <= '9') {
+                from++;
+            }
+            return from;
+        }
+
+        private static int trimStart(CharSequence line, int from, int to) {
+            while (from < to && line.charAt(from) <= ' ') {
+                from++;
+            }
+            return from;
+        }
+
+        private static int trimEnd(CharSequence line, int from, int to) {
+            while (to > from && line.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            return to;
+        }
+    }
+
+    /** A line of a mapped log seen as characters (one per byte), valid until its window is unmapped. */
+    private static final class LineChars implements CharSequence {
+        private MappedLog log;
+        private long start;
+        private int length;
+
+        LineChars of(MappedLog log, Span line) {
+            return of(log, line.start, line.end);
+        }
+
+        private LineChars of(MappedLog log, long from, long to) {
+            this.log = log;
+            this.start = from;
+            this.length = from < 0 ? 0 : (int) (to - from);
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (log.at(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new LineChars().of(log, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return log.decode(start, start + length);
+        }
+    }
+
+    private static final class Options {
+        String inputFile;
+        final ArrayList<String> inputs = new ArrayList<>();
+        boolean batch;
+        int batchThreads;
+        boolean mapped;
+        int threads;
+        boolean fingerprint;
+        boolean verifyFingerprints;
+        boolean follow;
+        int pollSeconds;
+        boolean buildIndex;
+        String lookupSession;
+        String lookupError;
+        ErrorFilter filter;
+        boolean stats;
+
+        Dedup newDedup() {
+            return fingerprint ? new FingerprintDedup(verifyFingerprints) : new ExactDedup();
+        }
+
+        byte dedupMode() {
+            return (byte) (fingerprint ? (verifyFingerprints ? 2 : 1) : 0);
+        }
+
+        /** Returns null when the arguments do not form a valid command line. */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.equals("--mmap")) {
+                    options.mapped = true;
+                } else if (arg.equals("--parallel")) {
+                    options.threads = Runtime.getRuntime().availableProcessors();
+                } else if (arg.startsWith("--parallel=")) {
+                    options.threads = positive(arg);
+                    if (options.threads < 0) {
+                        return null;
+                    }
+                } else if (arg.equals("--fingerprint") || arg.equals("--fingerprint=verify")) {
+                    options.fingerprint = true;
+                    options.verifyFingerprints = arg.endsWith("=verify");
+                } else if (arg.equals("--follow")) {
+                    options.follow = true;
+                } else if (arg.startsWith("--follow=")) {
+                    options.follow = true;
+                    options.pollSeconds = positive(arg);
+                    if (options.pollSeconds < 0) {
+                        return null;
+                    }
+                } else if (arg.equals("--batch")) {
+                    options.batch = true;
+                    options.batchThreads = Runtime.getRuntime().availableProcessors();
+                } else if (arg.startsWith("--batch=")) {
+                    options.batch = true;
+                    options.batchThreads = positive(arg);
+                    if (options.batchThreads < 0) {
+                        return null;
+                    }
+                } else if (arg.equals("--stats")) {
+                    options.stats = true;
+                } else if (arg.equals("--index")) {
+                    options.buildIndex = true;
+                } else if (arg.startsWith("--lookup-session=")) {
+                    options.lookupSession = arg.substring("--lookup-session=".length());
+                } else if (arg.matches("--lookup-error=[0-9a-fA-F]{1,16}")) {
+                    options.lookupError = arg.substring("--lookup-error=".length());
+                } else if (arg.matches("--(sessions|groups|exceptions|components|from|to)=.+")) {
+                    if (options.filter == null) {
+                        options.filter = new ErrorFilter();
+                    }
+                    if (!options.addFilter(arg)) {
+                        return null;
+                    }
+                } else if (arg.startsWith("--")) {
+                    return null;
+                } else {
+                    options.inputs.add(arg);
+                }
+            }
+            if (options.follow && options.threads > 0) {
+                return null;
+            }
+            if (options.batch ? options.follow || options.threads > 0 || options.buildIndex
+                    || options.lookupSession != null || options.lookupError != null : options.inputs.size() > 1) {
+                return null;
+            }
+            if ((options.filter != null || options.stats)
+                    && (options.buildIndex || options.lookupSession != null || options.lookupError != null)) {
+                return null;
+            }
+            if (options.inputs.isEmpty()) {
+                return null;
+            }
+            options.inputFile = options.inputs.get(0);
+            return options;
+        }
+
+        /** The number after '=' in {@code arg}, or -1 unless it is positive. */
+        private static int positive(String arg) {
+            try {
+                int value = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+                return value > 0 ? value : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /** Adds one query criterion; false if its value is not usable. Criteria are given as a comma separated list. */
+        private boolean addFilter(String arg) {
+            int eq = arg.indexOf('=');
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            ArrayList<String> values = new ArrayList<>();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    values.add(item.trim());
+                }
+            }
+            if (values.isEmpty()) {
+                return false;
+            }
+            String[] list = values.toArray(new String[0]);
+            switch (name) {
+                case "sessions":
+                    long[] keys = new long[list.length];
+                    for (int i = 0; i < list.length; i++) {
+                        keys[i] = FingerprintDedup.sessionKey(list[i]);
+                    }
+                    Arrays.sort(keys);
+                    filter.sessions = keys;
+                    break;
+                case "groups":
+                    filter.groups = list;
+                    break;
+                case "exceptions":
+                    filter.exceptions = list;
+                    break;
+                case "components":
+                    filter.components = list;
+                    break;
+                default:
+                    long bound = ErrorFilter.bound(value.trim());
+                    if (bound < 0) {
+                        return false;
+                    }
+                    if (name.equals("from")) {
+                        filter.from = bound;
+                    } else {
+                        filter.to = bound;
+                    }
+                    break;
+            }
+            filter.spec = (filter.spec == null ? "" : filter.spec + " ") + "--" + name + "=" + String.join(",", list);
+            return true;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** One line of a {@link MappedLog}: absolute byte range without its terminator, plus the markers it contains. */
+    private static final class Span {
+        static final int STARTING = 1;
+        static final int SESSION = 1 << 1;
+        static final int ERROR = 1 << 2;
+        static final int RULE_ENDED = 1 << 3;
+
+        long start = -1;
+        long end = -1;
+        int flags;
+        /** False for a last line that may still be growing: no terminator yet, or a '\r' that may precede '\n'. */
+        boolean complete;
+
+        boolean isNull() {
+            return start < 0;
+        }
+
+        long length() {
+            return end - start;
+        }
+    }
+
+    /** The three-line window the mapped scans slide over a log, line1 first. */
+    private static final class Window {
+        static final byte SESSION_START = 1;
+        static final byte ERROR = 2;
+        static final byte RULE_ENDED = 3;
+        static final byte SKIP = 4;
+
+        final MappedLog log;
+        Span line1 = new Span();
+        Span line2 = new Span();
+        Span line3 = new Span();
+        private final LineChars chars1 = new LineChars();
+        private final LineChars chars2 = new LineChars();
+        private final LineChars chars3 = new LineChars();
+        /** Id of the session line1 starts, once {@link #event} found one. */
+        String sessionID;
+
+        Window(MappedLog log) {
+            this.log = log;
+        }
+
+        /** Fills the window from the line starting at {@code from}; false if the log has less than three lines left. */
+        boolean fill(long from) throws IOException {
+            log.seek(from);
+            log.read(line1, from);
+            log.read(line2, from);
+            log.read(line3, from);
+            return !line3.isNull();
+        }
+
+        /** Moves down one line; false once less than three lines are left. */
+        boolean slide() throws IOException {
+            Span recycled = line1;
+            line1 = line2;
+            line2 = line3;
+            line3 = recycled;
+            log.read(line3, line1.isNull() ? log.cursor() : line1.start);
+            return !line3.isNull();
+        }
+
+        /** Refills line2 and line3 from the cursor, once the block headed by line1 was read past them. */
+        void skipBlock() throws IOException {
+            log.read(line2, log.cursor());
+            log.read(line3, line2.isNull() ? log.cursor() : line2.start);
+        }
+
+        /**
+         * What line1 starts: a session, an error the filter keeps or skips, or (if {@code ruleEnded}) a rule that ended
+         * unsuccessfully on line3; 0 for none of these.
+         */
+        byte event(ErrorFilter filter, boolean ruleEnded) {
+            if ((line1.flags & (Span.STARTING | Span.SESSION)) == (Span.STARTING | Span.SESSION)) {
+                sessionID = log.startingSessionId(line1);
+                return filter == null || filter.acceptsSessionStart(chars1.of(log, line1), sessionID)
+                        ? SESSION_START : 0;
+            }
+            if ((line1.flags & Span.ERROR) != 0) {
+                return filter == null || filter.acceptsError(chars1.of(log, line1), chars2.of(log, line2),
+                        chars3.of(log, line3)) ? ERROR : SKIP;
+            }
+            if (ruleEnded && (line3.flags & Span.RULE_ENDED) != 0 && (filter == null || filter.acceptsRuleEnded(
+                    chars1.of(log, line1), chars2.of(log, line2), chars3.of(log, line3)))) {
+                return RULE_ENDED;
+            }
+            return 0;
+        }
+
+        long timestamp() {
+            return ErrorFilter.timestamp(chars1.of(log, line1));
+        }
+
+        String errorSessionId() {
+            return log.errorSessionId(line1);
+        }
+
+        String errorIdentifier() {
+            return log.errorIdentifier(line1, line2, line3);
+        }
+
+        long blockEnd() throws IOException {
+            return log.blockEnd(line1, line2, line3);
+        }
+    }
+
+    /** Read-only view of a log through a sliding mapped window; lines are handed out as Spans. */
+    private static final class MappedLog implements Closeable {
+        private static final long WINDOW = 64L * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long windowEnd;
+        private long cursor;
+        private long lines;
+        private byte[] scratch = new byte[8 * 1024];
+
+        MappedLog(String file) throws IOException {
+            this(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+        }
+
+        private MappedLog(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /** Independent cursor and window over the same file, for another thread. Views are never closed. */
+        MappedLog view() throws IOException {
+            return new MappedLog(channel);
+        }
+
+        long size() {
+            return size;
+        }
+
+        long cursor() {
+            return cursor;
+        }
+
+        /** Number of lines read so far. */
+        long lines() {
+            return lines;
+        }
+
+        void seek(long pos) {
+            cursor = pos;
+        }
+
+        /** Reads the next line into {@code line}, or nulls it at EOF; bytes before keepFrom may be unmapped. */
+        boolean read(Span line, long keepFrom) throws IOException {
+            long start = cursor;
+            if (start >= size) {
+                line.start = -1;
+                line.end = -1;
+                line.flags = 0;
+                return false;
+            }
+
+            long end = start;
+            int flags = 0;
+            boolean split = false;
+            while (end < size) {
+                if (end >= windowEnd || end < windowStart) {
+                    map(keepFrom, end + WINDOW);
+                }
+                int i = (int) (end - windowStart);
+                int limit = (int) (windowEnd - windowStart);
+                while (i < limit) {
+                    byte b = window.get(i);
+                    if (b < '=') {
+                        if (b == '\n' || b == '\r') {
+                            break;
+                        }
+                        if (b == '<') {
+                            if (i + ERROR_TAG.length <= limit) {
+                                flags |= matchesAt(i, ERROR_TAG) ? Span.ERROR : 0;
+                            } else {
+                                split = true;
+                            }
+                        }
+                    } else if (b == 'S' && i + STARTING.length <= limit) {
+                        flags |= matchesAt(i, STARTING) ? Span.STARTING
+                                : matchesAt(i, SESSION_ID) ? Span.SESSION : 0;
+                    } else if (b == 'R' && i + RULE_ENDED.length <= limit) {
+                        flags |= matchesAt(i, RULE_ENDED) ? Span.RULE_ENDED : 0;
+                    } else if (b == 'S' || b == 'R') {
+                        split = true;
+                    }
+                    i++;
+                }
+                end = windowStart + i;
+                if (i < limit) {
+                    break;
+                }
+            }
+
+            long next = end;
+            line.complete = end < size;
+            if (end < size) {
+                next = end + 1;
+                line.complete = at(end) == '\n' || next < size;
+                if (at(end) == '\r' && next < size) {
+                    if (next >= windowEnd) {
+                        map(keepFrom, next + WINDOW);
+                    }
+                    if (at(next) == '\n') {
+                        next++;
+                    }
+                }
+            }
+
+            line.start = start;
+            line.end = end;
+            // A marker cut by the window edge is rechecked now that the whole line is mapped
+            line.flags = split ? classify(start, end) : flags;
+            cursor = next;
+            lines++;
+            return true;
+        }
+
+        /** End of the error block headed by line1, or -1 if it is not completely written yet. */
+        long blockEnd(Span line1, Span line2, Span line3) throws IOException {
+            TagBalance block = new TagBalance();
+            if (feed(block, line1) || feed(block, line2) || feed(block, line3)) {
+                return block.blockEnd();
+            }
+            long mark = cursor;
+            long markLines = lines;
+            Span ln = new Span();
+            while (block.inBlock() && read(ln, line1.start) && ln.complete) {
+                feed(block, ln);
+            }
+            seek(mark);
+            lines = markLines;
+            return block.blockEnd();
+        }
+
+        /** Copies {@code length} bytes at {@code from} with positioned reads, leaving the mapped window alone. */
+        void copy(long from, int length, ByteBuffer buf, OutputStream out) throws IOException {
+            LogSearch.copy(channel, from, from + length, buf, out);
+        }
+
+        /** Whether a complete blank line follows the cursor; the cursor is left where it was. */
+        boolean blankLineFollows(long keepFrom) throws IOException {
+            long mark = cursor;
+            long markLines = lines;
+            Span ln = new Span();
+            boolean found = false;
+            while (read(ln, keepFrom) && ln.complete) {
+                if (ln.length() == 0) {
+                    found = true;
+                    break;
+                }
+            }
+            seek(mark);
+            lines = markLines;
+            return found;
+        }
+
+        /** Hash of the first {@code length} bytes, to recognise the same log on a later run. */
+        long headHash(int length) throws IOException {
+            if (length > size) {
+                return 0;
+            }
+            map(0, length);
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < length; i++) {
+                hash = (hash ^ (window.get(i) & 0xFF)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private void map(long from, long to) throws IOException {
+            long length = Math.min(Math.max(to, from + WINDOW), size) - from;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Line at offset " + from + " is too long to map");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            windowStart = from;
+            windowEnd = from + length;
+        }
+
+        /** Copies {@code length} bytes at {@code from} into {@code dst}; they must be in the current window. */
+        void get(long from, int length, ByteBuffer dst) {
+            window.position((int) (from - windowStart));
+            window.get(dst.array(), dst.arrayOffset() + dst.position(), length);
+            dst.position(dst.position() + length);
+        }
+
+        private boolean matchesAt(int i, byte[] pattern) {
+            for (int j = 1; j < pattern.length; j++) {
+                if (window.get(i + j) != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte at(long pos) {
+            return window.get((int) (pos - windowStart));
+        }
+
+        private int classify(long start, long end) {
+            int flags = 0;
+            for (long i = start; i < end; i++) {
+                byte b = at(i);
+                if (b == 'S') {
+                    if (matches(i, end, STARTING)) {
+                        flags |= Span.STARTING;
+                    } else if (matches(i, end, SESSION_ID)) {
+                        flags |= Span.SESSION;
+                    }
+                } else if (b == '<') {
+                    if (matches(i, end, ERROR_TAG)) {
+                        flags |= Span.ERROR;
+                    }
+                } else if (b == 'R') {
+                    if (matches(i, end, RULE_ENDED)) {
+                        flags |= Span.RULE_ENDED;
+                    }
+                }
+            }
+            return flags;
+        }
+
+        private boolean matches(long pos, long end, byte[] pattern) {
+            if (end - pos < pattern.length) {
+                return false;
+            }
+            for (int j = 0; j < pattern.length; j++) {
+                if (at(pos + j) != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long indexOf(long from, long end, byte[] pattern) {
+            for (long i = from; i <= end - pattern.length; i++) {
+                if (at(i) == pattern[0] && matches(i, end, pattern)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private long lastIndexOf(long from, long end, byte b) {
+            for (long i = end - 1; i >= from; i--) {
+                if (at(i) == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Feeds {@code line} to {@code block} and returns whether it ends the block. */
+        boolean feed(TagBalance block, Span line) {
+            return block.feed(window, (int) (line.start - windowStart), (int) (line.end - windowStart), line.end);
+        }
+
+        /** Id after the first "Session Id=" up to the next space, as split("Session Id=")[1].split(" ")[0] gives it. */
+        String startingSessionId(Span line) {
+            long from = indexOf(line.start, line.end, SESSION_ID) + SESSION_ID.length;
+            long to = from;
+            while (to < line.end && at(to) != ' ' && !matches(to, line.end, SESSION_ID)) {
+                to++;
+            }
+            return decode(from, to);
+        }
+
+        /** Digits following "Session Id=" on an error header. */
+        String errorSessionId(Span line) {
+            long idx = indexOf(line.start, line.end, SESSION_ID);
+            long from = idx < 0 ? line.start + 10 : idx + SESSION_ID.length;
+            long to = from;
+            while (to < line.end && at(to) >= '0' && at(to) <= '9') {
+                to++;
+            }
+            return to > from ? decode(from, to) : "";
+        }
+
+        /** The text errors are deduplicated on, picked the same way as in the reader-based scan. */
+        String errorIdentifier(Span line1, Span line2, Span line3) {
+            if (indexOf(line2.start, line2.end, RULE_ERROR) >= 0
+                    || indexOf(line2.start, line2.end, EXCEPTION) >= 0) {
+                return decode(line2);
+            }
+            if (indexOf(line3.start, line3.end, EXCEPTION) >= 0) {
+                if (trimStart(line2.start, line2.end) < line2.end) {
+                    long idx = indexOf(line2.start, line2.end, LINE);
+                    return decodeTrimmed(line2.start, idx < 0 ? line2.end : idx);
+                }
+                return decode(line3);
+            }
+            return decodeTrimmed(lastIndexOf(line1.start, line1.end, (byte) '|') + 1, line1.end);
+        }
+
+        private long trimStart(long from, long to) {
+            while (from < to && (at(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            return from;
+        }
+
+        private String decodeTrimmed(long from, long to) {
+            from = trimStart(from, to);
+            while (to > from && (at(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+            return decode(from, to);
+        }
+
+        String decode(Span line) {
+            return decode(line.start, line.end);
+        }
+
+        private String decode(long from, long to) {
+            int length = (int) (to - from);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = at(from + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
-}
\ No newline at end of file
+}